@@ -0,0 +1,177 @@
+package nl.f00f.unpacker;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A summary of the contents of an archive, gathered without extracting it.
+ *
+ * @see Unpacker#inspect(java.nio.file.Path)
+ */
+public final class ArchiveSummary {
+    /**
+     * The name of the archive format, e.g. {@code zip} or {@code tar.gz}.
+     */
+    private final String format;
+
+    /**
+     * The size of the archive file itself, in bytes.
+     */
+    private final long archiveSize;
+
+    /**
+     * The number of regular files in the archive.
+     */
+    private final long fileCount;
+
+    /**
+     * The number of directories in the archive.
+     */
+    private final long directoryCount;
+
+    /**
+     * The sum of the sizes of all files in the archive, in bytes.
+     */
+    private final long totalUncompressedSize;
+
+    /**
+     * The number of files per file type.
+     */
+    private final Map<String, Long> fileTypes;
+
+    /**
+     * Creates a new archive summary.
+     *
+     * @param format the name of the archive format
+     * @param archiveSize the size of the archive file
+     * @param fileCount the number of regular files
+     * @param directoryCount the number of directories
+     * @param totalUncompressedSize the sum of the sizes of all files
+     * @param fileTypes the number of files per file type
+     */
+    @Contract(pure = true)
+    ArchiveSummary(
+            final String format,
+            final long archiveSize,
+            final long fileCount,
+            final long directoryCount,
+            final long totalUncompressedSize,
+            final Map<String, Long> fileTypes
+    ) {
+        this.format = format;
+        this.archiveSize = archiveSize;
+        this.fileCount = fileCount;
+        this.directoryCount = directoryCount;
+        this.totalUncompressedSize = totalUncompressedSize;
+        this.fileTypes = Collections.unmodifiableMap(new TreeMap<>(fileTypes));
+    }
+
+    /**
+     * Returns the name of the archive format.
+     *
+     * This is {@code zip}, the name of a tar decompression stack such as {@code tar.xz}, or
+     * {@code file} if the file is not a recognized archive.
+     *
+     * @return the format name
+     */
+    @Contract(pure = true)
+    public String getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Returns the size of the archive file itself.
+     *
+     * @return the size in bytes
+     */
+    @Contract(pure = true)
+    public long getArchiveSize() {
+        return this.archiveSize;
+    }
+
+    /**
+     * Returns the number of entries in the archive, counting both files and directories.
+     *
+     * @return the number of entries
+     */
+    @Contract(pure = true)
+    public long getEntryCount() {
+        return this.fileCount + this.directoryCount;
+    }
+
+    /**
+     * Returns the number of regular files in the archive.
+     *
+     * @return the number of files
+     */
+    @Contract(pure = true)
+    public long getFileCount() {
+        return this.fileCount;
+    }
+
+    /**
+     * Returns the number of directories in the archive.
+     *
+     * @return the number of directories
+     */
+    @Contract(pure = true)
+    public long getDirectoryCount() {
+        return this.directoryCount;
+    }
+
+    /**
+     * Returns the sum of the sizes of all files in the archive.
+     *
+     * This is the same size that is checked against
+     * {@link nl.f00f.unpacker.settings.UnpackerSettings#getMaxUnpackedArchiveSize()} during
+     * unpacking.
+     *
+     * @return the total size in bytes
+     */
+    @Contract(pure = true)
+    public long getTotalUncompressedSize() {
+        return this.totalUncompressedSize;
+    }
+
+    /**
+     * Returns the ratio between the total uncompressed size and the size of the archive file.
+     *
+     * @return the compression ratio, or {@code 1} if the archive file is empty
+     */
+    @Contract(pure = true)
+    public double getCompressionRatio() {
+        if (this.archiveSize == 0) {
+            return 1.0;
+        }
+
+        return (double) this.totalUncompressedSize / this.archiveSize;
+    }
+
+    /**
+     * Returns the number of files per file type.
+     *
+     * The file type is the lowercase extension of the file name without the leading dot, or
+     * the empty string for files without an extension.
+     *
+     * @return an unmodifiable map from file type to the number of files of that type
+     */
+    @Contract(pure = true)
+    public Map<String, Long> getFileTypes() {
+        return this.fileTypes;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveSummary{"
+                + "format=" + this.format
+                + ", archiveSize=" + this.archiveSize
+                + ", fileCount=" + this.fileCount
+                + ", directoryCount=" + this.directoryCount
+                + ", totalUncompressedSize=" + this.totalUncompressedSize
+                + ", fileTypes=" + this.fileTypes
+                + '}';
+    }
+}
@@ -0,0 +1,135 @@
+package nl.f00f.unpacker;
+
+import org.jetbrains.annotations.Contract;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+
+/**
+ * Signals that an unpacking operation should stop, either on request or when a deadline passes.
+ *
+ * The unpacker checks the token between entries and while reading the archive, including when
+ * it passes over entries it does not write. Once the token is cancelled or its deadline has
+ * passed, unpacking aborts with an
+ * {@link ExtractionCancelledException} and the files written so far are removed. The token is
+ * thread-safe, so it can be cancelled from a different thread than the one unpacking.
+ */
+public final class CancellationToken {
+    /**
+     * A token that is never cancelled.
+     */
+    public static final CancellationToken NONE = new CancellationToken(false, 0, null);
+
+    /**
+     * Whether the token has a deadline.
+     */
+    private final boolean hasDeadline;
+
+    /**
+     * The deadline as a {@link System#nanoTime()} value.
+     */
+    private final long deadline;
+
+    /**
+     * The token whose cancellation cancels this token as well, if any.
+     */
+    @Nullable
+    private final CancellationToken parent;
+
+    /**
+     * Whether the token has been cancelled explicitly.
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates a new cancellation token.
+     *
+     * @param hasDeadline whether the token has a deadline
+     * @param deadline the deadline as a {@link System#nanoTime()} value
+     * @param parent the token whose cancellation cancels this token as well, if any
+     */
+    @Contract(pure = true)
+    private CancellationToken(
+            final boolean hasDeadline, final long deadline, final @Nullable CancellationToken parent
+    ) {
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+        this.parent = parent;
+    }
+
+    /**
+     * Creates a token without a deadline that is only cancelled through {@link #cancel()}.
+     *
+     * @return the token
+     */
+    @Contract("-> new")
+    public static CancellationToken create() {
+        return new CancellationToken(false, 0, null);
+    }
+
+    /**
+     * Creates a token that is cancelled once the given time has elapsed.
+     *
+     * The token can also be cancelled earlier through {@link #cancel()}.
+     *
+     * @param timeout the time after which the token is cancelled
+     *
+     * @return the token
+     */
+    @Contract("_ -> new")
+    public static CancellationToken withTimeout(final Duration timeout) {
+        return new CancellationToken(true, System.nanoTime() + timeout.toNanos(), null);
+    }
+
+    /**
+     * Creates a token that is cancelled when this token is, but can also be cancelled on its
+     * own. Parallel unpacking uses it to stop the other workers once one of them fails.
+     *
+     * @return the token
+     */
+    @Contract("-> new")
+    CancellationToken link() {
+        return new CancellationToken(false, 0, this == NONE ? null : this);
+    }
+
+    /**
+     * Cancels the token.
+     *
+     * The token {@link #NONE} can not be cancelled.
+     */
+    public void cancel() {
+        if (this == NONE) {
+            return;
+        }
+
+        this.cancelled = true;
+    }
+
+    /**
+     * Returns whether the token has been cancelled or its deadline has passed.
+     *
+     * @return whether the operation should stop
+     */
+    public boolean isCancelled() {
+        return this.cancelled
+                || this.hasDeadline && System.nanoTime() - this.deadline >= 0
+                || this.parent != null && this.parent.isCancelled();
+    }
+
+    /**
+     * Throws an exception if the token has been cancelled or its deadline has passed.
+     *
+     * @throws ExtractionCancelledException if the operation should stop
+     */
+    void throwIfCancelled() {
+        if (this.cancelled) {
+            throw new ExtractionCancelledException("Unpacking was cancelled");
+        }
+        if (this.hasDeadline && System.nanoTime() - this.deadline >= 0) {
+            throw new ExtractionCancelledException("Unpacking exceeded its deadline");
+        }
+        if (this.parent != null) {
+            this.parent.throwIfCancelled();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package nl.f00f.unpacker;
+
+import org.jetbrains.annotations.Contract;
+import org.tukaani.xz.ArrayCache;
+import org.tukaani.xz.BasicArrayCache;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * Decoder state that is reused across entries and unpacking operations.
+ *
+ * Creating an {@link Inflater} allocates native zlib state and the LZMA and XZ decoders allocate
+ * dictionaries of several megabytes. This pool keeps a bounded number of those around so that
+ * consecutive extractions reuse them instead of reallocating them. The pool is thread-safe.
+ */
+final class DecoderPool {
+    /**
+     * The default maximum number of idle inflaters kept in the pool.
+     */
+    private static final int DEFAULT_MAX_INFLATERS = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The idle inflaters.
+     */
+    private final BlockingQueue<Inflater> inflaters;
+
+    /**
+     * The cache for the LZMA and XZ dictionary and probability arrays.
+     */
+    private final ArrayCache arrayCache = new BasicArrayCache();
+
+    /**
+     * Creates a new decoder pool with the default capacity.
+     */
+    DecoderPool() {
+        this(DEFAULT_MAX_INFLATERS);
+    }
+
+    /**
+     * Creates a new decoder pool.
+     *
+     * @param maxInflaters the maximum number of idle inflaters to keep
+     */
+    DecoderPool(final int maxInflaters) {
+        this.inflaters = new ArrayBlockingQueue<>(Math.max(maxInflaters, 1));
+    }
+
+    /**
+     * Takes an inflater for raw deflate data from the pool, creating one if none is idle.
+     *
+     * The inflater must be handed back through {@link #returnInflater(Inflater)} when done.
+     *
+     * @return the inflater
+     */
+    Inflater borrowInflater() {
+        final var inflater = this.inflaters.poll();
+        if (inflater != null) {
+            return inflater;
+        }
+
+        return new Inflater(true);
+    }
+
+    /**
+     * Hands an inflater back to the pool.
+     *
+     * The inflater is reset for its next use. If the pool is full, the inflater is ended
+     * instead, releasing its native resources.
+     *
+     * @param inflater the inflater
+     */
+    void returnInflater(final Inflater inflater) {
+        inflater.reset();
+        if (!this.inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the cache for the LZMA and XZ decoders.
+     *
+     * Arrays are taken from the cache when a decoder is created and put back when it is closed.
+     *
+     * @return the array cache
+     */
+    @Contract(pure = true)
+    ArrayCache getArrayCache() {
+        return this.arrayCache;
+    }
+}
@@ -0,0 +1,217 @@
+package nl.f00f.unpacker;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.jetbrains.annotations.Contract;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the zip entries that may be identical, and of the files they were written to,
+ * so identical entries can be unpacked once and hard linked.
+ *
+ * Entries are candidates if another entry in the central directory has the same CRC-32 and
+ * size. That only makes them likely to be identical; the unpacker confirms it by comparing
+ * content digests. Instances are not thread-safe.
+ *
+ * @see nl.f00f.unpacker.settings.UnpackerSettings#isDeduplicating()
+ */
+final class DuplicateIndex {
+    /**
+     * The written files per content digest, for every CRC-32 and size shared by multiple entries.
+     */
+    private final Map<ContentKey, Map<String, Path>> written;
+
+    /**
+     * The files that candidate entries were written or linked to, as normalized paths.
+     */
+    private final Set<Path> paths = new HashSet<>();
+
+    /**
+     * Creates a new duplicate index.
+     *
+     * @param written the empty maps of written files, for every candidate CRC-32 and size
+     */
+    @Contract(pure = true)
+    private DuplicateIndex(final Map<ContentKey, Map<String, Path>> written) {
+        this.written = written;
+    }
+
+    /**
+     * Finds the candidate duplicates in the central directory of a zip file.
+     *
+     * @param zip the zip file
+     *
+     * @return the index
+     */
+    static DuplicateIndex of(final ZipFile zip) {
+        final var counts = new HashMap<ContentKey, Integer>();
+        final var entries = zip.getEntries();
+        while (entries.hasMoreElements()) {
+            final var entry = entries.nextElement();
+            if (isEligible(entry)) {
+                counts.merge(new ContentKey(entry), 1, Integer::sum);
+            }
+        }
+
+        final var written = new HashMap<ContentKey, Map<String, Path>>();
+        for (final var count : counts.entrySet()) {
+            if (count.getValue() > 1) {
+                written.put(count.getKey(), new HashMap<>());
+            }
+        }
+        return new DuplicateIndex(written);
+    }
+
+    /**
+     * Checks if an entry may be identical to another entry in the archive.
+     *
+     * @param entry the entry
+     *
+     * @return whether the entry is a candidate duplicate
+     */
+    boolean isCandidate(final ZipArchiveEntry entry) {
+        return isEligible(entry) && this.written.containsKey(new ContentKey(entry));
+    }
+
+    /**
+     * Checks if an entry has a candidate duplicate that has been written already.
+     *
+     * @param entry the candidate entry
+     *
+     * @return whether there is a written file to compare the entry to
+     */
+    boolean hasWritten(final ZipArchiveEntry entry) {
+        @Nullable
+        final var files = this.written.get(new ContentKey(entry));
+        return files != null && !files.isEmpty();
+    }
+
+    /**
+     * Finds a written file that is identical to an entry.
+     *
+     * @param entry the candidate entry
+     * @param digest the content digest of the entry
+     *
+     * @return the file, or {@code null} if no identical file has been written
+     */
+    @Nullable
+    Path find(final ZipArchiveEntry entry, final String digest) {
+        @Nullable
+        final var files = this.written.get(new ContentKey(entry));
+        return files != null ? files.get(digest) : null;
+    }
+
+    /**
+     * Records that a candidate entry has been written to a file.
+     *
+     * @param entry the candidate entry
+     * @param digest the content digest of the entry
+     * @param path the file the entry was written to
+     */
+    void addWritten(final ZipArchiveEntry entry, final String digest, final Path path) {
+        @Nullable
+        final var files = this.written.get(new ContentKey(entry));
+        if (files != null) {
+            final var normalized = path.normalize();
+            files.putIfAbsent(digest, normalized);
+            this.paths.add(normalized);
+        }
+    }
+
+    /**
+     * Records that a file has been hard linked to a written file.
+     *
+     * @param link the link
+     */
+    void addLink(final Path link) {
+        this.paths.add(link.normalize());
+    }
+
+    /**
+     * Prepares a path to be written by a later entry with the same name.
+     *
+     * If a candidate entry was written or linked to the path, it may share its contents with
+     * other files, and writing to it would change those files too. So it is removed first, and
+     * no longer offered as an identical file. Paths are compared in normalized form, so a name
+     * like {@code b/./lib.jar} releases {@code b/lib.jar}.
+     *
+     * @param path the path about to be written
+     *
+     * @throws IOException if the file can not be removed
+     */
+    void release(final Path path) throws IOException {
+        final var normalized = path.normalize();
+        if (!this.paths.remove(normalized)) {
+            return;
+        }
+
+        Files.deleteIfExists(normalized);
+        for (final var files : this.written.values()) {
+            files.values().remove(normalized);
+        }
+    }
+
+    /**
+     * Checks if an entry can be deduplicated at all: it must be a file with contents, and the
+     * central directory must record its CRC-32 and size.
+     *
+     * @param entry the entry
+     *
+     * @return whether the entry is eligible
+     */
+    @Contract(pure = true)
+    private static boolean isEligible(final ZipArchiveEntry entry) {
+        return !entry.isDirectory()
+                && entry.getSize() > 0
+                && entry.getCrc() != ZipArchiveEntry.CRC_UNKNOWN;
+    }
+
+    /**
+     * The CRC-32 and size of an entry.
+     */
+    private static final class ContentKey {
+        /**
+         * The CRC-32 of the entry.
+         */
+        private final long crc;
+
+        /**
+         * The size of the entry.
+         */
+        private final long size;
+
+        /**
+         * Creates the key of an entry.
+         *
+         * @param entry the entry
+         */
+        @Contract(pure = true)
+        private ContentKey(final ZipArchiveEntry entry) {
+            this.crc = entry.getCrc();
+            this.size = entry.getSize();
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof ContentKey)) {
+                return false;
+            }
+
+            final var key = (ContentKey) other;
+            return this.crc == key.crc && this.size == key.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.crc) * 31 + Long.hashCode(this.size);
+        }
+    }
+}
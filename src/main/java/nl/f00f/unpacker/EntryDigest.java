@@ -0,0 +1,203 @@
+package nl.f00f.unpacker;
+
+import org.jetbrains.annotations.Contract;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * A reusable digest over the contents of a single unpacked file.
+ *
+ * Instances are not thread-safe. After {@link #finish()} the digest is reset and may be used for
+ * the next file.
+ */
+abstract class EntryDigest {
+    /**
+     * Lowercase hexadecimal digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The name of the algorithm, as configured.
+     */
+    private final String algorithm;
+
+    /**
+     * Creates a new entry digest.
+     *
+     * @param algorithm the name of the algorithm
+     */
+    @Contract(pure = true)
+    private EntryDigest(final String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Creates a digest for the given algorithm.
+     *
+     * The checksums {@code CRC32}, {@code CRC32C} and {@code Adler32} are supported, as well as
+     * every algorithm supported by {@link MessageDigest}, such as {@code SHA-256}.
+     *
+     * @param algorithm the name of the algorithm
+     *
+     * @return the digest
+     *
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    @Contract("_ -> new")
+    static EntryDigest forAlgorithm(final String algorithm) {
+        switch (algorithm.toUpperCase(Locale.ROOT)) {
+            case "CRC32":
+            case "CRC-32":
+                return new ChecksumDigest(algorithm, new CRC32());
+            case "CRC32C":
+            case "CRC-32C":
+                return new ChecksumDigest(algorithm, new CRC32C());
+            case "ADLER32":
+            case "ADLER-32":
+                return new ChecksumDigest(algorithm, new Adler32());
+            default:
+                try {
+                    return new MessageDigestDigest(algorithm, MessageDigest.getInstance(algorithm));
+                } catch (final NoSuchAlgorithmException ex) {
+                    throw new IllegalArgumentException(
+                            "Unsupported digest algorithm " + algorithm, ex
+                    );
+                }
+        }
+    }
+
+    /**
+     * Returns the name of the algorithm, as configured.
+     *
+     * @return the name
+     */
+    @Contract(pure = true)
+    final String getAlgorithm() {
+        return this.algorithm;
+    }
+
+    /**
+     * Updates the digest with a chunk of file contents.
+     *
+     * @param buffer the buffer containing the contents
+     * @param offset the offset of the contents in the buffer
+     * @param length the length of the contents
+     */
+    abstract void update(byte[] buffer, int offset, int length);
+
+    /**
+     * Updates the digest with the remaining contents of a buffer, consuming them.
+     *
+     * @param buffer the buffer containing the contents
+     */
+    abstract void update(ByteBuffer buffer);
+
+    /**
+     * Completes the digest and resets it for the next file.
+     *
+     * @return the digest as a lowercase hexadecimal string
+     */
+    abstract String finish();
+
+    /**
+     * Formats bytes as a lowercase hexadecimal string.
+     *
+     * @param bytes the bytes to format
+     *
+     * @return the hexadecimal string
+     */
+    @Contract(pure = true)
+    private static String toHex(final byte[] bytes) {
+        final var chars = new char[bytes.length * 2];
+        for (var i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * A digest backed by a 32-bit {@link Checksum}.
+     */
+    private static final class ChecksumDigest extends EntryDigest {
+        /**
+         * The checksum.
+         */
+        private final Checksum checksum;
+
+        /**
+         * Creates a new checksum digest.
+         *
+         * @param algorithm the name of the algorithm
+         * @param checksum the checksum
+         */
+        @Contract(pure = true)
+        private ChecksumDigest(final String algorithm, final Checksum checksum) {
+            super(algorithm);
+            this.checksum = checksum;
+        }
+
+        @Override
+        void update(final byte[] buffer, final int offset, final int length) {
+            this.checksum.update(buffer, offset, length);
+        }
+
+        @Override
+        void update(final ByteBuffer buffer) {
+            this.checksum.update(buffer);
+        }
+
+        @Override
+        String finish() {
+            final var value = this.checksum.getValue();
+            this.checksum.reset();
+            return toHex(new byte[] {
+                    (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+            });
+        }
+    }
+
+    /**
+     * A digest backed by a {@link MessageDigest}.
+     */
+    private static final class MessageDigestDigest extends EntryDigest {
+        /**
+         * The message digest.
+         */
+        private final MessageDigest digest;
+
+        /**
+         * Creates a new message digest digest.
+         *
+         * @param algorithm the name of the algorithm
+         * @param digest the message digest
+         */
+        @Contract(pure = true)
+        private MessageDigestDigest(final String algorithm, final MessageDigest digest) {
+            super(algorithm);
+            this.digest = digest;
+        }
+
+        @Override
+        void update(final byte[] buffer, final int offset, final int length) {
+            this.digest.update(buffer, offset, length);
+        }
+
+        @Override
+        void update(final ByteBuffer buffer) {
+            this.digest.update(buffer);
+        }
+
+        @Override
+        String finish() {
+            return toHex(this.digest.digest());
+        }
+    }
+}
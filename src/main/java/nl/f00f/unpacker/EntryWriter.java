@@ -0,0 +1,681 @@
+package nl.f00f.unpacker;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import nl.f00f.unpacker.settings.SyncPolicy;
+import nl.f00f.unpacker.settings.UnpackerSettings;
+import org.apache.commons.compress.utils.IOUtils;
+import org.jetbrains.annotations.Contract;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the contents of archive entries to files, computing checksums and digests on the way.
+ *
+ * A writer is created for a single unpacking operation and reused for all of its entries, so the
+ * copy buffer and digest state are only allocated once. The writer also applies the configured
+ * write strategy: direct I/O and syncing. Instances are not thread-safe.
+ */
+final class EntryWriter {
+    private static final Logger logger = LoggerFactory.getLogger(EntryWriter.class);
+
+    /**
+     * The size of the copy buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The granularity at which holes are detected in sparse files. This matches the block size
+     * of common file systems; smaller holes could not be represented anyway.
+     */
+    private static final int SPARSE_BLOCK_SIZE = 4096;
+
+    /**
+     * The algorithm of the content digest, which confirms that two entries are identical.
+     */
+    private static final String CONTENT_DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * The maximum length of the parts of a mapped file that are written at once, so cancellation
+     * is still checked regularly.
+     */
+    private static final int MAPPED_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * The options to open files for writing with, created once so opening a file does not
+     * allocate an option set. Files are always created anew, so a link left at their path by
+     * an earlier entry is never followed.
+     */
+    private static final Set<OpenOption> WRITE_OPTIONS = Set.of(
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE
+    );
+
+    /**
+     * The options to open files for writing with direct I/O with.
+     */
+    private static final Set<OpenOption> DIRECT_WRITE_OPTIONS = Set.of(
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE,
+            ExtendedOpenOption.DIRECT
+    );
+
+    /**
+     * The options to open files for syncing with.
+     */
+    private static final Set<OpenOption> READ_OPTIONS = Set.of(StandardOpenOption.READ);
+
+    /**
+     * The file attributes to create files with: none.
+     */
+    private static final FileAttribute<?>[] NO_ATTRIBUTES = new FileAttribute<?>[0];
+
+    /**
+     * The copy buffer.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The copy buffer, wrapped for channel writes.
+     */
+    private final ByteBuffer byteBuffer = ByteBuffer.wrap(this.buffer);
+
+    /**
+     * The digests to compute for every entry.
+     */
+    private final List<EntryDigest> digests;
+
+    /**
+     * The CRC-32 of the most recently written entry.
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Whether to compute the CRC-32 of every entry.
+     */
+    private final boolean computeCrc;
+
+    /**
+     * When files are synced.
+     */
+    private final SyncPolicy syncPolicy;
+
+    /**
+     * The size from which files are written with direct I/O.
+     */
+    private final long directIoThreshold;
+
+    /**
+     * The token that aborts writing when cancelled.
+     */
+    private final CancellationToken token;
+
+    /**
+     * The files still to be synced when the unpacking operation finishes.
+     */
+    private final List<Path> unsyncedFiles = new ArrayList<>();
+
+    /**
+     * The directories to be synced when the unpacking operation finishes.
+     */
+    private final Set<Path> unsyncedDirectories = new LinkedHashSet<>();
+
+    /**
+     * The digest identifying the contents of an entry, allocated on first use.
+     */
+    @Nullable
+    private EntryDigest contentDigest = null;
+
+    /**
+     * Whether the content digest is computed for the entry being written.
+     */
+    private boolean digestingContent = false;
+
+    /**
+     * The block-aligned buffer for direct I/O, allocated on first use.
+     */
+    @Nullable
+    private ByteBuffer directBuffer = null;
+
+    /**
+     * The block size the direct I/O buffer is aligned to.
+     */
+    private int directBlockSize = 0;
+
+    /**
+     * Creates a new entry writer.
+     *
+     * @param settings the unpacker settings, providing the digest algorithms and write strategy
+     * @param computeCrc whether to compute the CRC-32 of every entry
+     * @param token the token that aborts writing when cancelled
+     *
+     * @throws IllegalArgumentException if one of the digest algorithms is not supported
+     */
+    EntryWriter(
+            final UnpackerSettings settings,
+            final boolean computeCrc,
+            final CancellationToken token
+    ) {
+        final var algorithms = settings.getDigestAlgorithms();
+        this.digests = new ArrayList<>(algorithms.size());
+        for (final var algorithm : algorithms) {
+            this.digests.add(EntryDigest.forAlgorithm(algorithm));
+        }
+        this.computeCrc = computeCrc;
+        this.syncPolicy = settings.getSyncPolicy();
+        this.directIoThreshold = settings.getDirectIoThreshold();
+        this.token = token;
+    }
+
+    /**
+     * Copies the contents of an entry to a file.
+     *
+     * The input stream is not closed.
+     *
+     * @param in the stream to read the contents from
+     * @param target the file to write to
+     * @param size the size of the entry as recorded in the archive, or a negative number if it
+     *             is unknown
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException if reading or writing fails
+     * @throws ExtractionCancelledException if the token is cancelled while writing
+     */
+    long write(final InputStream in, final Path target, final long size) throws IOException {
+        this.crc.reset();
+
+        if (size > 0 && size >= this.directIoThreshold) {
+            @Nullable
+            final var direct = this.openDirect(target);
+            if (direct != null) {
+                try (direct) {
+                    final var total = this.copyDirect(in, direct);
+                    this.afterWrite(direct, target);
+                    return total;
+                }
+            }
+        }
+
+        try (var channel = openForWriting(target)) {
+            var total = 0L;
+            int read;
+            while ((read = in.read(this.buffer)) != -1) {
+                this.token.throwIfCancelled();
+                this.update(read);
+                this.writeFully(channel, 0, read, total);
+                total += read;
+            }
+
+            // The recorded size may have been too large
+            if (channel.size() > total) {
+                channel.truncate(total);
+            }
+
+            this.afterWrite(channel, target);
+            return total;
+        }
+    }
+
+    /**
+     * Writes the contents of an entry straight from a memory-mapped archive to a file.
+     *
+     * The contents are handed to the file system as slices of the mapping, without copying them
+     * into the copy buffer first. Files written with direct I/O still go through the aligned
+     * buffer, as the mapping is not aligned to blocks.
+     *
+     * @param source the mapped archive
+     * @param position the position of the contents in the archive
+     * @param size the size of the contents
+     * @param target the file to write to
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException if the archive ends before the contents do, or writing fails
+     * @throws ExtractionCancelledException if the token is cancelled while writing
+     */
+    long write(
+            final MappedFile source, final long position, final long size, final Path target
+    ) throws IOException {
+        if (size > 0 && size >= this.directIoThreshold) {
+            try (var in = source.inputStream(position, position + size)) {
+                final var total = this.write(in, target, size);
+                if (total < size) {
+                    throw new EOFException("Unexpected end of archive in " + target);
+                }
+                return total;
+            }
+        }
+
+        this.crc.reset();
+
+        try (var channel = openForWriting(target)) {
+            var total = 0L;
+            while (total < size) {
+                this.token.throwIfCancelled();
+                final var segment = source.segment(
+                        position + total, Math.min(size - total, MAPPED_SEGMENT_SIZE)
+                );
+                this.update(segment);
+
+                while (segment.hasRemaining()) {
+                    channel.write(segment, total + segment.position());
+                }
+                total += segment.limit();
+            }
+
+            this.afterWrite(channel, target);
+            return total;
+        }
+    }
+
+    /**
+     * Opens a file for direct I/O, bypassing the page cache.
+     *
+     * @param target the file to open
+     *
+     * @return the channel, or {@code null} if the file system does not support direct I/O
+     */
+    @Nullable
+    private FileChannel openDirect(final Path target) {
+        try {
+            final var blockSize = Files.getFileStore(target.toAbsolutePath().getParent())
+                    .getBlockSize();
+            if (blockSize <= 0 || BUFFER_SIZE % blockSize != 0) {
+                return null;
+            }
+
+            if (this.directBuffer == null || this.directBlockSize != blockSize) {
+                this.directBlockSize = (int) blockSize;
+                this.directBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE + this.directBlockSize)
+                        .alignedSlice(this.directBlockSize);
+            }
+
+            removeExisting(target);
+            return FileChannel.open(target, DIRECT_WRITE_OPTIONS, NO_ATTRIBUTES);
+        } catch (final IOException | UnsupportedOperationException ex) {
+            logger.debug("Direct I/O is not available for {}, writing normally", target, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Copies a stream to a channel opened for direct I/O.
+     *
+     * Direct I/O only accepts whole blocks, so the last block is padded with zeroes and the
+     * file is truncated to the real size afterwards.
+     *
+     * @param in the stream to copy
+     * @param channel the channel opened for direct I/O
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException if reading or writing fails
+     */
+    private long copyDirect(final InputStream in, final FileChannel channel) throws IOException {
+        final var direct = this.directBuffer;
+        assert direct != null : "Direct buffer should be allocated when the channel is opened";
+
+        var total = 0L;
+        int read;
+        while ((read = IOUtils.readFully(in, this.buffer)) > 0) {
+            this.token.throwIfCancelled();
+            this.update(read);
+
+            direct.clear();
+            direct.put(this.buffer, 0, read);
+            while (direct.position() % this.directBlockSize != 0) {
+                direct.put((byte) 0);
+            }
+            direct.flip();
+
+            while (direct.hasRemaining()) {
+                channel.write(direct, total + direct.position());
+            }
+            total += read;
+        }
+
+        if (channel.size() > total) {
+            channel.truncate(total);
+        }
+
+        return total;
+    }
+
+    /**
+     * Copies the contents of a sparse entry to a file, leaving holes where the contents are zero.
+     *
+     * Blocks consisting entirely of zeroes are skipped over instead of written, so on file
+     * systems that support it the file stays sparse. The file still gets the full logical size.
+     * The input stream is not closed.
+     *
+     * @param in the stream to read the logical contents from, including the zeroes in holes
+     * @param target the file to write to
+     *
+     * @return the logical number of bytes written, including holes
+     *
+     * @throws IOException if reading or writing fails
+     * @throws ExtractionCancelledException if the token is cancelled while writing
+     */
+    long writeSparse(final InputStream in, final Path target) throws IOException {
+        this.crc.reset();
+
+        var position = 0L;
+        try (var channel = openForWriting(target)) {
+            int read;
+            // Fill the buffer completely so blocks stay aligned with the file system blocks
+            while ((read = IOUtils.readFully(in, this.buffer)) > 0) {
+                this.token.throwIfCancelled();
+                this.update(read);
+
+                for (var offset = 0; offset < read; offset += SPARSE_BLOCK_SIZE) {
+                    final var length = Math.min(SPARSE_BLOCK_SIZE, read - offset);
+                    if (!this.isZero(offset, length)) {
+                        this.writeFully(channel, offset, length, position + offset);
+                    }
+                }
+
+                position += read;
+            }
+
+            // A trailing hole does not extend the file by itself
+            if (channel.size() < position) {
+                this.buffer[0] = 0;
+                this.writeFully(channel, 0, 1, position - 1);
+            }
+
+            this.afterWrite(channel, target);
+        }
+
+        return position;
+    }
+
+    /**
+     * Reads back a file written by an earlier unpacking operation, computing its checksum and
+     * digests as if it had just been written.
+     *
+     * @param target the file to read
+     *
+     * @return the number of bytes read
+     *
+     * @throws IOException if reading fails
+     * @throws ExtractionCancelledException if the token is cancelled while reading
+     */
+    long readBack(final Path target) throws IOException {
+        this.crc.reset();
+
+        var total = 0L;
+        try (var in = Files.newInputStream(target, LinkOption.NOFOLLOW_LINKS)) {
+            int read;
+            while ((read = in.read(this.buffer)) != -1) {
+                this.token.throwIfCancelled();
+                this.update(read);
+                total += read;
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Reads the contents of an entry without writing them, computing the checksum and digests
+     * as if it had been written, along with the content digest.
+     *
+     * The input stream is not closed.
+     *
+     * @param in the stream to read the contents from
+     *
+     * @return the content digest
+     *
+     * @throws IOException if reading fails
+     * @throws ExtractionCancelledException if the token is cancelled while reading
+     */
+    String digest(final InputStream in) throws IOException {
+        this.crc.reset();
+        this.digestNextEntry();
+
+        int read;
+        while ((read = in.read(this.buffer)) != -1) {
+            this.token.throwIfCancelled();
+            this.update(read);
+        }
+
+        return this.finishContentDigest();
+    }
+
+    /**
+     * Computes the content digest of the next entry that is written, so it can be compared to
+     * other entries with {@link #finishContentDigest()}.
+     */
+    void digestNextEntry() {
+        if (this.contentDigest == null) {
+            this.contentDigest = EntryDigest.forAlgorithm(CONTENT_DIGEST_ALGORITHM);
+        }
+        this.digestingContent = true;
+    }
+
+    /**
+     * Completes the content digest of the most recently written entry.
+     *
+     * @return the content digest as a hexadecimal string
+     *
+     * @throws IllegalStateException if the content digest was not requested for the entry
+     */
+    String finishContentDigest() {
+        if (!this.digestingContent || this.contentDigest == null) {
+            throw new IllegalStateException("No content digest was requested");
+        }
+
+        this.digestingContent = false;
+        return this.contentDigest.finish();
+    }
+
+    /**
+     * Syncs the files and directories whose sync was deferred until the end of the unpacking
+     * operation, according to the sync policy.
+     *
+     * @throws IOException if syncing a file fails
+     */
+    void finish() throws IOException {
+        for (final var file : this.unsyncedFiles) {
+            try (var channel = FileChannel.open(file, READ_OPTIONS, NO_ATTRIBUTES)) {
+                channel.force(true);
+            }
+        }
+        this.unsyncedFiles.clear();
+
+        for (final var directory : this.unsyncedDirectories) {
+            // Not every platform can open and sync a directory; the files are safe regardless
+            try (var channel = FileChannel.open(directory, READ_OPTIONS, NO_ATTRIBUTES)) {
+                channel.force(true);
+            } catch (final IOException ex) {
+                logger.debug("Unable to sync directory {}", directory, ex);
+            }
+        }
+        this.unsyncedDirectories.clear();
+    }
+
+    /**
+     * Applies the sync policy to a file that has just been written.
+     *
+     * @param channel the channel the file was written through
+     * @param target the file
+     *
+     * @throws IOException if syncing fails
+     */
+    private void afterWrite(final FileChannel channel, final Path target) throws IOException {
+        switch (this.syncPolicy) {
+            case PER_FILE:
+                channel.force(true);
+                this.unsyncedDirectories.add(target.toAbsolutePath().getParent());
+                break;
+            case BATCHED:
+                this.unsyncedFiles.add(target);
+                this.unsyncedDirectories.add(target.toAbsolutePath().getParent());
+                break;
+            case NONE:
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Opens a file for writing, replacing whatever is at its path.
+     *
+     * An existing file is removed rather than truncated: it may be a hard link sharing its
+     * contents with another file, or a symbolic link pointing anywhere.
+     *
+     * @param target the file
+     *
+     * @return the channel
+     *
+     * @throws IOException if the file couldn't be opened
+     */
+    private static FileChannel openForWriting(final Path target) throws IOException {
+        removeExisting(target);
+        return FileChannel.open(target, WRITE_OPTIONS, NO_ATTRIBUTES);
+    }
+
+    /**
+     * Removes the file or link at a path, so a new file or link can be created in its place.
+     *
+     * Directories are never removed: an entry that names one conflicts with the directory,
+     * which may hold other entries or be the target directory itself.
+     *
+     * @param target the path
+     *
+     * @throws FileSystemException if the path is a directory
+     * @throws IOException if the file couldn't be removed
+     */
+    static void removeExisting(final Path target) throws IOException {
+        if (Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+            throw new FileSystemException(target.toString(), null, "Is a directory");
+        }
+        Files.deleteIfExists(target);
+    }
+
+    /**
+     * Checks whether a part of the copy buffer consists entirely of zeroes.
+     *
+     * @param offset the offset of the part
+     * @param length the length of the part
+     *
+     * @return whether all bytes are zero
+     */
+    @Contract(pure = true)
+    private boolean isZero(final int offset, final int length) {
+        for (var i = offset; i < offset + length; i++) {
+            if (this.buffer[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a part of the copy buffer to a channel at a given position.
+     *
+     * @param channel the channel to write to
+     * @param offset the offset of the part in the buffer
+     * @param length the length of the part
+     * @param position the position in the file to write to
+     *
+     * @throws IOException if writing fails
+     */
+    private void writeFully(
+            final FileChannel channel, final int offset, final int length, final long position
+    ) throws IOException {
+        this.byteBuffer.limit(offset + length).position(offset);
+        while (this.byteBuffer.hasRemaining()) {
+            channel.write(this.byteBuffer, position + this.byteBuffer.position() - offset);
+        }
+    }
+
+    /**
+     * Feeds a chunk of the copy buffer to the checksum and digests.
+     *
+     * @param length the number of bytes at the start of the buffer to feed
+     */
+    private void update(final int length) {
+        if (this.computeCrc) {
+            this.crc.update(this.buffer, 0, length);
+        }
+        for (final var digest : this.digests) {
+            digest.update(this.buffer, 0, length);
+        }
+        if (this.digestingContent && this.contentDigest != null) {
+            this.contentDigest.update(this.buffer, 0, length);
+        }
+    }
+
+    /**
+     * Feeds a part of a mapped file to the checksum and digests.
+     *
+     * @param segment the part, which is rewound afterwards
+     */
+    private void update(final ByteBuffer segment) {
+        if (this.computeCrc) {
+            this.crc.update(segment);
+            segment.rewind();
+        }
+        for (final var digest : this.digests) {
+            digest.update(segment);
+            segment.rewind();
+        }
+        if (this.digestingContent && this.contentDigest != null) {
+            this.contentDigest.update(segment);
+            segment.rewind();
+        }
+    }
+
+    /**
+     * Returns the CRC-32 of the most recently written entry.
+     *
+     * Only meaningful if the writer was created to compute CRCs.
+     *
+     * @return the CRC-32
+     */
+    @Contract(pure = true)
+    long getCrc() {
+        return this.crc.getValue();
+    }
+
+    /**
+     * Completes the digests of the most recently written entry and resets them.
+     *
+     * @return a map from algorithm name to the hexadecimal digest, empty if no digests are
+     *         configured
+     */
+    Map<String, String> finishDigests() {
+        if (this.digests.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        final var result = new LinkedHashMap<String, String>();
+        for (final var digest : this.digests) {
+            result.put(digest.getAlgorithm(), digest.finish());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+}
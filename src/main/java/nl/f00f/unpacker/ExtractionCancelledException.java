@@ -0,0 +1,42 @@
+package nl.f00f.unpacker;
+
+/**
+ * Indicates that unpacking was aborted because its {@link CancellationToken} was cancelled or its
+ * deadline passed.
+ */
+public class ExtractionCancelledException extends RuntimeException {
+    /**
+     * Creates a new extraction cancelled exception.
+     */
+    public ExtractionCancelledException() {
+        super();
+    }
+
+    /**
+     * Creates a new extraction cancelled exception.
+     *
+     * @param message the detail message explaining what caused the exception
+     */
+    public ExtractionCancelledException(final String message) {
+        super(message);
+    }
+
+    /**
+     * Creates a new extraction cancelled exception.
+     *
+     * @param cause the exception that caused this exception
+     */
+    public ExtractionCancelledException(final Throwable cause) {
+        super(cause);
+    }
+
+    /**
+     * Creates a new extraction cancelled exception.
+     *
+     * @param message the detail message explaining what caused the exception
+     * @param cause   the exception that caused this exception
+     */
+    public ExtractionCancelledException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
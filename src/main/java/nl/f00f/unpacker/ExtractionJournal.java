@@ -0,0 +1,395 @@
+package nl.f00f.unpacker;
+
+import org.jetbrains.annotations.Contract;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A checkpoint journal of the entries that have been unpacked completely, used to resume an
+ * unpacking operation that failed halfway.
+ *
+ * The journal is a text file in the target directory. The first line identifies the archive by
+ * its size and modification time, so a journal left behind for a different archive is
+ * discarded. Every following line records one entry: its position in the tar stream, the
+ * position where the next entry starts, its size, its CRC-32 and its name. Every tar entry is
+ * recorded, including directories and skipped entries, so a resumed operation never seeks past
+ * an entry it has not handled. Lines are flushed but not synced, so a record may be lost or
+ * precede its file's contents on disk after a crash; the unpacker therefore reads a recorded file
+ * back before trusting it.
+ *
+ * @see nl.f00f.unpacker.settings.UnpackerSettings#isResumable()
+ */
+final class ExtractionJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionJournal.class);
+
+    /**
+     * The name of the journal file in the target directory.
+     */
+    static final String FILE_NAME = ".unpacker-journal";
+
+    /**
+     * The size recorded for hard and symbolic links, which have no contents of their own.
+     */
+    static final long LINK = -1;
+
+    /**
+     * The size recorded for directories.
+     */
+    static final long DIRECTORY = -2;
+
+    /**
+     * The size recorded for entries that were skipped, leaving nothing on disk.
+     */
+    static final long SKIPPED = -3;
+
+    /**
+     * The size recorded for entries whose names can not be stored in the journal. Such entries
+     * are never considered complete, so resuming does not seek past them.
+     */
+    static final long UNRECORDABLE = -4;
+
+    /**
+     * The first word of the header line, including the format version.
+     */
+    private static final String MAGIC = "unpacker-journal-1";
+
+    /**
+     * The path to the journal file.
+     */
+    private final Path path;
+
+    /**
+     * The records read from an earlier operation and written by this one, by key.
+     */
+    private final Map<String, Record> records;
+
+    /**
+     * The writer appending records to the journal file.
+     */
+    private final BufferedWriter out;
+
+    /**
+     * Whether the journal has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new journal.
+     *
+     * @param path the path to the journal file
+     * @param records the records read from an earlier operation
+     * @param out the writer appending records to the journal file
+     */
+    @Contract(pure = true)
+    private ExtractionJournal(
+            final Path path, final Map<String, Record> records, final BufferedWriter out
+    ) {
+        this.path = path;
+        this.records = records;
+        this.out = out;
+    }
+
+    /**
+     * Opens the journal for unpacking an archive into a directory.
+     *
+     * If the directory holds a journal for the same archive, its records are loaded. Otherwise
+     * a new journal is started.
+     *
+     * @param targetDir the directory the archive is unpacked into
+     * @param arPath the archive
+     *
+     * @return the journal
+     *
+     * @throws IOException if the journal can not be read or created
+     */
+    static ExtractionJournal open(final Path targetDir, final Path arPath) throws IOException {
+        final var path = targetDir.resolve(FILE_NAME);
+        final var header = MAGIC + ' ' + Files.size(arPath)
+                + ' ' + Files.getLastModifiedTime(arPath).toMillis();
+
+        final var records = new LinkedHashMap<String, Record>();
+        if (Files.isRegularFile(path)) {
+            final var lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            if (!lines.isEmpty() && lines.get(0).equals(header)) {
+                for (final var line : lines.subList(1, lines.size())) {
+                    @Nullable
+                    final var record = Record.parse(line);
+                    if (record != null) {
+                        records.put(key(record.name, record.position), record);
+                    }
+                }
+                logger.debug("Resuming from journal {} with {} entries", path, records.size());
+
+                final var out = Files.newBufferedWriter(
+                        path, StandardCharsets.UTF_8, StandardOpenOption.APPEND
+                );
+                return new ExtractionJournal(path, records, out);
+            }
+
+            logger.debug("Discarding journal {}, which belongs to a different archive", path);
+        }
+
+        final var out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        try {
+            out.write(header);
+            out.newLine();
+            out.flush();
+        } catch (final IOException ex) {
+            out.close();
+            throw ex;
+        }
+        return new ExtractionJournal(path, records, out);
+    }
+
+    /**
+     * Returns the path to the journal file.
+     *
+     * @return the path
+     */
+    @Contract(pure = true)
+    Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * Looks up the record of an entry.
+     *
+     * @param name the entry name
+     * @param position the position of the entry in the tar stream, or -1 for zip entries
+     *
+     * @return the record, or {@code null} if the entry has not been recorded
+     */
+    @Nullable
+    Record find(final String name, final long position) {
+        return this.records.get(key(name, position));
+    }
+
+    /**
+     * Returns the records of the tar entries, in the order of their position in the stream.
+     *
+     * @return the records
+     */
+    List<Record> tarRecords() {
+        final var result = new ArrayList<Record>(this.records.size());
+        for (final var record : this.records.values()) {
+            if (record.position >= 0) {
+                result.add(record);
+            }
+        }
+        result.sort((a, b) -> Long.compare(a.position, b.position));
+        return result;
+    }
+
+    /**
+     * Returns all records.
+     *
+     * @return an unmodifiable view of the records
+     */
+    Collection<Record> records() {
+        return Collections.unmodifiableCollection(this.records.values());
+    }
+
+    /**
+     * Records that an entry has been unpacked completely.
+     *
+     * The names of entries containing line breaks can not be stored. They are recorded as
+     * {@link #UNRECORDABLE}, and will be unpacked again when resuming.
+     *
+     * @param name the entry name
+     * @param position the position of the entry in the tar stream, or -1 for zip entries
+     * @param end the position where the next entry starts in the tar stream, or -1
+     * @param size the size of the file, or one of {@link #LINK}, {@link #DIRECTORY} and
+     *             {@link #SKIPPED}
+     * @param crc the CRC-32 of the file's contents
+     *
+     * @throws IOException if writing the journal fails
+     */
+    void record(
+            final String name, final long position, final long end, final long size, final long crc
+    ) throws IOException {
+        final var record = name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0
+                ? new Record("", position, end, UNRECORDABLE, 0)
+                : new Record(name, position, end, size, crc);
+        this.records.put(key(record.name, position), record);
+
+        this.out.write(record.toString());
+        this.out.newLine();
+        this.out.flush();
+    }
+
+    /**
+     * Closes and removes the journal, once the archive has been unpacked completely or has to
+     * be unpacked from scratch.
+     *
+     * @throws IOException if the journal can not be removed
+     */
+    void delete() throws IOException {
+        this.close();
+        Files.deleteIfExists(this.path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!this.closed) {
+            this.closed = true;
+            this.out.close();
+        }
+    }
+
+    /**
+     * Returns the key of an entry in the records.
+     *
+     * @param name the entry name
+     * @param position the position of the entry in the tar stream, or -1 for zip entries
+     *
+     * @return the key
+     */
+    private static String key(final String name, final long position) {
+        return position + "/" + name;
+    }
+
+    /**
+     * The record of an entry that has been unpacked completely.
+     */
+    static final class Record {
+        /**
+         * The entry name.
+         */
+        private final String name;
+
+        /**
+         * The position of the entry in the tar stream, or -1 for zip entries.
+         */
+        private final long position;
+
+        /**
+         * The position where the next entry starts in the tar stream, or -1.
+         */
+        private final long end;
+
+        /**
+         * The size of the file, or one of {@link #LINK}, {@link #DIRECTORY}, {@link #SKIPPED}
+         * and {@link #UNRECORDABLE}.
+         */
+        private final long size;
+
+        /**
+         * The CRC-32 of the file's contents.
+         */
+        private final long crc;
+
+        /**
+         * Creates a new record.
+         *
+         * @param name the entry name
+         * @param position the position of the entry in the tar stream, or -1
+         * @param end the position where the next entry starts in the tar stream, or -1
+         * @param size the size of the file, or the kind of entry
+         * @param crc the CRC-32 of the file's contents
+         */
+        @Contract(pure = true)
+        private Record(
+                final String name,
+                final long position,
+                final long end,
+                final long size,
+                final long crc
+        ) {
+            this.name = name;
+            this.position = position;
+            this.end = end;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        /**
+         * Parses a record line.
+         *
+         * @param line the line
+         *
+         * @return the record, or {@code null} if the line is malformed, e.g. because it was cut
+         *         off by a crash
+         */
+        @Nullable
+        private static Record parse(final String line) {
+            final var fields = line.split(" ", 5);
+            if (fields.length != 5) {
+                return null;
+            }
+
+            try {
+                return new Record(
+                        fields[4],
+                        Long.parseLong(fields[0]),
+                        Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3], 16)
+                );
+            } catch (final NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        /**
+         * Returns the entry name.
+         *
+         * @return the name
+         */
+        @Contract(pure = true)
+        String getName() {
+            return this.name;
+        }
+
+        /**
+         * Returns the position where the next entry starts in the tar stream.
+         *
+         * @return the position, or -1 for zip entries
+         */
+        @Contract(pure = true)
+        long getEnd() {
+            return this.end;
+        }
+
+        /**
+         * Returns the size of the file.
+         *
+         * @return the size, or one of {@link #LINK}, {@link #DIRECTORY}, {@link #SKIPPED} and
+         *         {@link #UNRECORDABLE}
+         */
+        @Contract(pure = true)
+        long getSize() {
+            return this.size;
+        }
+
+        /**
+         * Returns the CRC-32 of the file's contents.
+         *
+         * @return the CRC-32
+         */
+        @Contract(pure = true)
+        long getCrc() {
+            return this.crc;
+        }
+
+        @Override
+        public String toString() {
+            return this.position + " " + this.end + " " + this.size
+                    + ' ' + Long.toHexString(this.crc) + ' ' + this.name;
+        }
+    }
+}
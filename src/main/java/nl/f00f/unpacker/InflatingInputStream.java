@@ -0,0 +1,126 @@
+package nl.f00f.unpacker;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * An input stream that inflates raw deflate data, reusable across entries.
+ *
+ * Unlike {@link java.util.zip.InflaterInputStream}, which allocates its input buffer for every
+ * stream, this stream is created once per unpacking operation and pointed at the data of each
+ * entry in turn through {@link #reset(InputStream, Inflater)}. Closing the stream does not close
+ * the underlying stream or end the inflater. Instances are not thread-safe.
+ */
+final class InflatingInputStream extends InputStream {
+    /**
+     * The size of the input buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The dummy byte fed to the inflater after the compressed data, see {@link Inflater}.
+     */
+    private static final byte[] DUMMY_BYTE = new byte[1];
+
+    /**
+     * The buffer holding compressed data read from the underlying stream.
+     */
+    private final byte[] input = new byte[BUFFER_SIZE];
+
+    /**
+     * The buffer for single byte reads.
+     */
+    private final byte[] single = new byte[1];
+
+    /**
+     * The stream the compressed data is read from.
+     */
+    @Nullable
+    private InputStream in = null;
+
+    /**
+     * The inflater for the current entry.
+     */
+    @Nullable
+    private Inflater inflater = null;
+
+    /**
+     * Whether the dummy byte has been fed to the inflater.
+     */
+    private boolean dummyFed = false;
+
+    /**
+     * Starts inflating the data of a new entry.
+     *
+     * @param in the stream to read the raw deflate data from
+     * @param inflater a reset inflater for raw deflate data
+     */
+    void reset(final InputStream in, final Inflater inflater) {
+        this.in = in;
+        this.inflater = inflater;
+        this.dummyFed = false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return this.read(this.single, 0, 1) == -1 ? -1 : this.single[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final var inf = this.inflater;
+        if (inf == null) {
+            throw new IllegalStateException("No entry to inflate");
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        try {
+            int n;
+            while ((n = inf.inflate(b, off, len)) == 0) {
+                if (inf.finished() || inf.needsDictionary()) {
+                    return -1;
+                }
+                if (inf.needsInput()) {
+                    this.fill(inf);
+                }
+            }
+            return n;
+        } catch (final DataFormatException ex) {
+            throw new ZipException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Feeds the next chunk of compressed data to the inflater.
+     *
+     * @param inf the inflater
+     *
+     * @throws IOException if reading fails or the compressed data ends prematurely
+     */
+    private void fill(final Inflater inf) throws IOException {
+        assert this.in != null : "Stream is set together with the inflater";
+
+        final var read = this.in.read(this.input);
+        if (read > 0) {
+            inf.setInput(this.input, 0, read);
+        } else if (read == -1 && !this.dummyFed) {
+            this.dummyFed = true;
+            inf.setInput(DUMMY_BYTE, 0, 1);
+        } else if (read == -1) {
+            throw new EOFException("Unexpected end of deflated data");
+        }
+    }
+
+    @Override
+    public void close() {
+        this.in = null;
+        this.inflater = null;
+    }
+}
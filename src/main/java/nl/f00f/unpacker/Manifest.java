@@ -0,0 +1,61 @@
+package nl.f00f.unpacker;
+
+import org.jetbrains.annotations.Contract;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The digests of the files that were unpacked from an archive.
+ *
+ * @see nl.f00f.unpacker.settings.UnpackerSettings#getDigestAlgorithms()
+ */
+public final class Manifest {
+    /**
+     * The digests per file, in unpacking order.
+     */
+    private final Map<Path, Map<String, String>> digests;
+
+    /**
+     * Creates a new manifest.
+     *
+     * @param digests the digests per file, mapping algorithm names to hexadecimal digests
+     */
+    @Contract(pure = true)
+    Manifest(final Map<Path, Map<String, String>> digests) {
+        this.digests = Collections.unmodifiableMap(new LinkedHashMap<>(digests));
+    }
+
+    /**
+     * Returns the digests of all files.
+     *
+     * The map is empty if no digest algorithms were configured.
+     *
+     * @return an unmodifiable map from file path to a map from algorithm name to the lowercase
+     *         hexadecimal digest of the file's contents
+     */
+    @Contract(pure = true)
+    public Map<Path, Map<String, String>> getDigests() {
+        return this.digests;
+    }
+
+    /**
+     * Returns the digests of a single file.
+     *
+     * @param file the path to the file, as returned by the unpacker
+     *
+     * @return an unmodifiable map from algorithm name to the lowercase hexadecimal digest, empty
+     *         if the file is not in the manifest
+     */
+    @Contract(pure = true)
+    public Map<String, String> getDigests(final Path file) {
+        return this.digests.getOrDefault(file, Collections.emptyMap());
+    }
+
+    @Override
+    public String toString() {
+        return "Manifest" + this.digests;
+    }
+}
@@ -0,0 +1,389 @@
+package nl.f00f.unpacker;
+
+import org.jetbrains.annotations.Contract;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file that is mapped into memory for reading, so archive readers and the entry writer can
+ * work on the page cache directly instead of through read calls and intermediate copies.
+ *
+ * A single mapping can not exceed 2 GiB, so larger files are mapped as consecutive chunks. The
+ * mappings are released once the instance is garbage collected; there is no way to release them
+ * earlier. The file must not be truncated while it is mapped, as accessing a mapping past the
+ * end of the file crashes the reader.
+ *
+ * @see nl.f00f.unpacker.settings.UnpackerSettings#isMemoryMapped()
+ */
+final class MappedFile {
+    /**
+     * The default size of the chunks the file is mapped in.
+     */
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * The path to the file, for error messages.
+     */
+    private final Path path;
+
+    /**
+     * The size of the file.
+     */
+    private final long size;
+
+    /**
+     * The size of every chunk but the last.
+     */
+    private final int chunkSize;
+
+    /**
+     * The mapped chunks, in order. They are only read through duplicates, so they can be shared
+     * between readers.
+     */
+    private final MappedByteBuffer[] chunks;
+
+    /**
+     * Creates a new mapped file.
+     *
+     * @param path the path to the file
+     * @param size the size of the file
+     * @param chunkSize the size of every chunk but the last
+     * @param chunks the mapped chunks
+     */
+    @Contract(pure = true)
+    private MappedFile(
+            final Path path, final long size, final int chunkSize, final MappedByteBuffer[] chunks
+    ) {
+        this.path = path;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Maps a file into memory.
+     *
+     * @param path the file
+     *
+     * @return the mapped file
+     *
+     * @throws IOException if the file can not be mapped
+     */
+    static MappedFile map(final Path path) throws IOException {
+        return map(path, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Maps a file into memory in chunks of a given size.
+     *
+     * @param path the file
+     * @param chunkSize the size of the chunks
+     *
+     * @return the mapped file
+     *
+     * @throws IOException if the file can not be mapped
+     */
+    static MappedFile map(final Path path, final int chunkSize) throws IOException {
+        // The mappings remain valid after the channel is closed
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final var size = channel.size();
+            final var chunks = new MappedByteBuffer[(int) ((size + chunkSize - 1) / chunkSize)];
+            for (var i = 0; i < chunks.length; i++) {
+                final var position = (long) i * chunkSize;
+                final var length = Math.min(chunkSize, size - position);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            }
+            return new MappedFile(path, size, chunkSize, chunks);
+        }
+    }
+
+    /**
+     * Returns the size of the file.
+     *
+     * @return the size in bytes
+     */
+    @Contract(pure = true)
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * Returns a part of the file, without copying it.
+     *
+     * The part ends at the end of a chunk at the latest, so it may be shorter than requested.
+     *
+     * @param position the position of the part in the file
+     * @param length the maximum length of the part
+     *
+     * @return a buffer holding the part, positioned at its start
+     *
+     * @throws EOFException if the position is at or beyond the end of the file
+     */
+    ByteBuffer segment(final long position, final long length) throws EOFException {
+        final var view = this.view(position);
+        view.limit((int) Math.min(view.limit(), view.position() + length));
+        return view.slice();
+    }
+
+    /**
+     * Opens a channel reading the file from memory.
+     *
+     * @return the channel
+     */
+    @Contract("-> new")
+    SeekableByteChannel channel() {
+        return new MappedChannel();
+    }
+
+    /**
+     * Opens a stream reading a range of the file from memory.
+     *
+     * @param position the position to start reading at
+     * @param end the position to stop reading at
+     *
+     * @return the stream
+     */
+    @Contract("_, _ -> new")
+    InputStream inputStream(final long position, final long end) {
+        return new MappedInputStream(position, Math.min(end, this.size));
+    }
+
+    /**
+     * Returns a view of the chunk containing a position, positioned there.
+     *
+     * @param position the position in the file
+     *
+     * @return a new view, limited to the end of the chunk
+     *
+     * @throws EOFException if the position is at or beyond the end of the file
+     */
+    private ByteBuffer view(final long position) throws EOFException {
+        if (position < 0 || position >= this.size) {
+            throw this.endOfFile();
+        }
+
+        final var chunk = this.chunks[(int) (position / this.chunkSize)];
+        final var view = chunk.duplicate();
+        view.position((int) (position % this.chunkSize));
+        return view;
+    }
+
+    /**
+     * Creates the exception for reading past the end of the file.
+     *
+     * @return the exception
+     */
+    @Contract("-> new")
+    private EOFException endOfFile() {
+        return new EOFException("Unexpected end of " + this.path);
+    }
+
+    /**
+     * Keeps track of a read position in the mapped file, reusing the view of the current chunk
+     * so reads do not allocate.
+     */
+    private final class Cursor {
+        /**
+         * The view of the current chunk.
+         */
+        @Nullable
+        private ByteBuffer view = null;
+
+        /**
+         * The index of the current chunk.
+         */
+        private int index = -1;
+
+        /**
+         * Returns the view of the chunk containing a position, positioned there.
+         *
+         * @param position the position in the file, before the end of the file
+         *
+         * @return the view, limited to the end of the chunk
+         */
+        private ByteBuffer at(final long position) {
+            final var chunkSize = MappedFile.this.chunkSize;
+            final var index = (int) (position / chunkSize);
+            if (this.view == null || this.index != index) {
+                this.view = MappedFile.this.chunks[index].duplicate();
+                this.index = index;
+            }
+
+            this.view.limit(this.view.capacity());
+            this.view.position((int) (position - (long) index * chunkSize));
+            return this.view;
+        }
+    }
+
+    /**
+     * A read-only channel over the mapped file.
+     */
+    private final class MappedChannel implements SeekableByteChannel {
+        /**
+         * The read position.
+         */
+        private final Cursor cursor = new Cursor();
+
+        /**
+         * The position of the channel.
+         */
+        private long position = 0;
+
+        /**
+         * Whether the channel is open.
+         */
+        private boolean open = true;
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            this.ensureOpen();
+            if (this.position >= MappedFile.this.size) {
+                return -1;
+            }
+
+            final var view = this.cursor.at(this.position);
+            final var length = Math.min(view.remaining(), dst.remaining());
+            view.limit(view.position() + length);
+            dst.put(view);
+
+            this.position += length;
+            return length;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            this.ensureOpen();
+            return this.position;
+        }
+
+        @Override
+        public SeekableByteChannel position(final long newPosition) throws IOException {
+            this.ensureOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position " + newPosition);
+            }
+
+            this.position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            this.ensureOpen();
+            return MappedFile.this.size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(final long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.open;
+        }
+
+        @Override
+        public void close() {
+            this.open = false;
+        }
+
+        /**
+         * Checks that the channel is still open.
+         *
+         * @throws ClosedChannelException if the channel has been closed
+         */
+        private void ensureOpen() throws ClosedChannelException {
+            if (!this.open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+
+    /**
+     * A stream reading a range of the mapped file.
+     */
+    private final class MappedInputStream extends InputStream {
+        /**
+         * The read position.
+         */
+        private final Cursor cursor = new Cursor();
+
+        /**
+         * The position to stop reading at.
+         */
+        private final long end;
+
+        /**
+         * The position of the stream in the file.
+         */
+        private long position;
+
+        /**
+         * Creates a new stream.
+         *
+         * @param position the position to start reading at
+         * @param end the position to stop reading at, not beyond the end of the file
+         */
+        private MappedInputStream(final long position, final long end) {
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read() {
+            if (this.position >= this.end) {
+                return -1;
+            }
+
+            return this.cursor.at(this.position++).get() & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (this.position >= this.end) {
+                return -1;
+            }
+
+            final var view = this.cursor.at(this.position);
+            final var read = (int) Math.min(
+                    Math.min(view.remaining(), length), this.end - this.position
+            );
+            view.get(buffer, offset, read);
+
+            this.position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final var skipped = Math.max(Math.min(n, this.end - this.position), 0);
+            this.position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Math.max(this.end - this.position, 0), Integer.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package nl.f00f.unpacker;
+
+import nl.f00f.unpacker.settings.PackerSettings;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.jetbrains.annotations.Contract;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+
+/**
+ * Packs a directory into an archive.
+ *
+ * Compression is spread over multiple threads: zip entries are deflated in parallel and gzipped
+ * tar archives are compressed as independent blocks in parallel. The resulting archives can be
+ * unpacked by {@link Unpacker}.
+ */
+public class Packer {
+    private static final Logger logger = LoggerFactory.getLogger(Packer.class);
+
+    /**
+     * Matches the file names of gzipped tar archives.
+     */
+    private static final Pattern TAR_GZ = Pattern.compile(".*?(?:\\.tar\\.gz|\\.tgz)$");
+
+    /**
+     * Matches the file names of uncompressed tar archives.
+     */
+    private static final Pattern TAR = Pattern.compile(".*?\\.tar$");
+
+    /**
+     * The packer settings.
+     */
+    private final PackerSettings settings;
+
+    /**
+     * Creates a new packer.
+     *
+     * @param settings the packer settings
+     */
+    @Contract(pure = true)
+    public Packer(final PackerSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Packs the contents of a directory into an archive.
+     *
+     * The archive type is determined by the extension of the archive path: {@code .zip},
+     * {@code .tar.gz}, {@code .tgz} and {@code .tar} are supported. Entry names are relative to
+     * the source directory. Only regular files and directories are packed.
+     *
+     * If packing fails, the partially written archive is removed.
+     *
+     * @param sourceDir the directory whose contents are to be packed
+     * @param arPath the archive to create
+     *
+     * @throws IOException if packing fails
+     * @throws IllegalArgumentException if the archive type is not supported
+     */
+    public void pack(final Path sourceDir, final Path arPath) throws IOException {
+        final var pathStr = arPath.toString();
+
+        final List<Path> paths;
+        try (var walk = Files.walk(sourceDir)) {
+            paths = walk.filter(p -> !p.equals(sourceDir))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        try {
+            if (pathStr.endsWith(".zip")) {
+                this.packZip(sourceDir, paths, arPath);
+            } else if (TAR_GZ.matcher(pathStr).matches()) {
+                this.packTarGz(sourceDir, paths, arPath);
+            } else if (TAR.matcher(pathStr).matches()) {
+                this.packTar(sourceDir, paths, arPath);
+            } else {
+                throw new IllegalArgumentException("Unsupported archive type: " + arPath);
+            }
+        } catch (final IOException | RuntimeException ex) {
+            // Clean up before rethrowing
+            try {
+                Files.deleteIfExists(arPath);
+            } catch (final Exception dex) {
+                logger.warn("Unable to clean file {}", arPath.toAbsolutePath(), dex);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Packs files into a zip archive, deflating the entries in parallel.
+     *
+     * @param sourceDir the directory the entry names are relative to
+     * @param paths the files and directories to pack
+     * @param zipPath the zip file to create
+     *
+     * @throws IOException if packing fails
+     */
+    private void packZip(
+            final Path sourceDir, final List<Path> paths, final Path zipPath
+    ) throws IOException {
+        logger.trace("Packing {} into zip file {}", sourceDir, zipPath);
+
+        final var executor = Executors.newFixedThreadPool(this.parallelism());
+        try (var out = new ZipArchiveOutputStream(zipPath.toFile())) {
+            // The creator shuts the executor down once it has written the archive
+            final var creator = new ParallelScatterZipCreator(executor);
+
+            for (final var path : paths) {
+                final var name = entryName(sourceDir, path);
+
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    out.putArchiveEntry(new ZipArchiveEntry(name + '/'));
+                    out.closeArchiveEntry();
+                } else if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                    final var entry = new ZipArchiveEntry(name);
+                    entry.setMethod(ZipEntry.DEFLATED);
+                    entry.setTime(Files.getLastModifiedTime(path).toMillis());
+                    creator.addArchiveEntry(entry, () -> {
+                        try {
+                            return Files.newInputStream(path);
+                        } catch (final IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    });
+                } else {
+                    logger.debug("Not packing {}: not a regular file or directory", path);
+                }
+            }
+
+            creator.writeTo(out);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while packing " + zipPath);
+        } catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Unable to pack " + zipPath, ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Packs files into a gzipped tar archive, compressing blocks of the tar stream in parallel.
+     *
+     * @param sourceDir the directory the entry names are relative to
+     * @param paths the files and directories to pack
+     * @param arPath the archive to create
+     *
+     * @throws IOException if packing fails
+     */
+    private void packTarGz(
+            final Path sourceDir, final List<Path> paths, final Path arPath
+    ) throws IOException {
+        logger.trace("Packing {} into tar.gz file {}", sourceDir, arPath);
+
+        final var parallelism = this.parallelism();
+        final var executor = Executors.newFixedThreadPool(parallelism);
+        try (var fout = Files.newOutputStream(arPath);
+             var gzout = new ParallelGzipOutputStream(
+                     fout, executor, parallelism, this.settings.getGzipBlockSize()
+             )
+        ) {
+            this.writeTar(sourceDir, paths, gzout);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Packs files into an uncompressed tar archive.
+     *
+     * @param sourceDir the directory the entry names are relative to
+     * @param paths the files and directories to pack
+     * @param arPath the archive to create
+     *
+     * @throws IOException if packing fails
+     */
+    private void packTar(
+            final Path sourceDir, final List<Path> paths, final Path arPath
+    ) throws IOException {
+        logger.trace("Packing {} into tar file {}", sourceDir, arPath);
+
+        try (var fout = Files.newOutputStream(arPath);
+             var bout = new BufferedOutputStream(fout)
+        ) {
+            this.writeTar(sourceDir, paths, bout);
+        }
+    }
+
+    /**
+     * Writes files as a tar stream.
+     *
+     * @param sourceDir the directory the entry names are relative to
+     * @param paths the files and directories to pack
+     * @param out the stream to write to; closed when done
+     *
+     * @throws IOException if packing fails
+     */
+    private void writeTar(
+            final Path sourceDir, final List<Path> paths, final OutputStream out
+    ) throws IOException {
+        try (var tar = new TarArchiveOutputStream(out)) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+            for (final var path : paths) {
+                final var isDirectory = Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+                if (!isDirectory && !Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                    logger.debug("Not packing {}: not a regular file or directory", path);
+                    continue;
+                }
+
+                final var name = entryName(sourceDir, path);
+                tar.putArchiveEntry(new TarArchiveEntry(path.toFile(), name));
+                if (!isDirectory) {
+                    Files.copy(path, tar);
+                }
+                tar.closeArchiveEntry();
+            }
+
+            tar.finish();
+        }
+    }
+
+    /**
+     * Returns the number of compression threads to use.
+     *
+     * @return the configured parallelism, at least 1
+     */
+    private int parallelism() {
+        return Math.max(this.settings.getParallelism(), 1);
+    }
+
+    /**
+     * Returns the archive entry name of a file.
+     *
+     * @param sourceDir the directory the entry name is relative to
+     * @param path the file
+     *
+     * @return the entry name, using forward slashes as separators
+     */
+    private static String entryName(final Path sourceDir, final Path path) {
+        final var relative = sourceDir.relativize(path);
+        final var name = new StringBuilder();
+        for (final var component : relative) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(component);
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,229 @@
+package nl.f00f.unpacker;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.jetbrains.annotations.Contract;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A gzip output stream that compresses fixed-size blocks in parallel.
+ *
+ * Every block is compressed into a separate gzip member and the members are written to the
+ * underlying stream in order. Concatenated members form a valid gzip file, although readers
+ * must be told to expect more than one member, e.g. through the {@code decompressConcatenated}
+ * flag of {@link org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream}.
+ *
+ * The stream does not own the executor; the caller is responsible for shutting it down.
+ */
+final class ParallelGzipOutputStream extends OutputStream {
+    /**
+     * The stream the compressed members are written to.
+     */
+    private final OutputStream out;
+
+    /**
+     * The executor compressing the blocks.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The maximum number of blocks being compressed at the same time.
+     */
+    private final int maxPending;
+
+    /**
+     * The compressed members that have not been written yet, in order.
+     */
+    private final Queue<Future<byte[]>> pending = new ArrayDeque<>();
+
+    /**
+     * The block currently being filled.
+     */
+    private byte[] block;
+
+    /**
+     * The number of bytes in the current block.
+     */
+    private int blockLength = 0;
+
+    /**
+     * Whether at least one member has been submitted.
+     */
+    private boolean submittedAny = false;
+
+    /**
+     * Whether the stream has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new parallel gzip output stream.
+     *
+     * @param out the stream to write the compressed members to
+     * @param executor the executor compressing the blocks
+     * @param parallelism the number of blocks that may be compressed at the same time
+     * @param blockSize the size of the uncompressed blocks
+     */
+    @Contract(pure = true)
+    ParallelGzipOutputStream(
+            final OutputStream out,
+            final ExecutorService executor,
+            final int parallelism,
+            final int blockSize
+    ) {
+        this.out = out;
+        this.executor = executor;
+        // Keep some finished members queued up so the threads don't idle while one is written
+        this.maxPending = 2 * Math.max(parallelism, 1);
+        this.block = new byte[Math.max(blockSize, 1)];
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        this.ensureOpen();
+
+        this.block[this.blockLength++] = (byte) b;
+        if (this.blockLength == this.block.length) {
+            this.submitBlock();
+        }
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        this.ensureOpen();
+
+        var offset = off;
+        var remaining = len;
+        while (remaining > 0) {
+            final var chunk = Math.min(remaining, this.block.length - this.blockLength);
+            System.arraycopy(b, offset, this.block, this.blockLength, chunk);
+            this.blockLength += chunk;
+            offset += chunk;
+            remaining -= chunk;
+
+            if (this.blockLength == this.block.length) {
+                this.submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes all members that have finished compressing, without waiting for the others.
+     *
+     * Partially filled blocks are not submitted, since that would hurt the compression ratio.
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void flush() throws IOException {
+        this.ensureOpen();
+
+        while (!this.pending.isEmpty() && this.pending.peek().isDone()) {
+            this.writeMember(this.pending.remove());
+        }
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        try {
+            // An empty gzip file is not valid; always emit at least one member
+            if (this.blockLength > 0 || !this.submittedAny) {
+                this.submitBlock();
+            }
+
+            while (!this.pending.isEmpty()) {
+                this.writeMember(this.pending.remove());
+            }
+        } finally {
+            this.closed = true;
+            for (final var future : this.pending) {
+                future.cancel(true);
+            }
+            this.out.close();
+        }
+    }
+
+    /**
+     * Submits the current block for compression and starts a new one.
+     *
+     * If too many blocks are pending, this waits for the oldest one and writes it first.
+     *
+     * @throws IOException if writing a finished member fails
+     */
+    private void submitBlock() throws IOException {
+        while (this.pending.size() >= this.maxPending) {
+            this.writeMember(this.pending.remove());
+        }
+
+        final var data = this.block;
+        final var length = this.blockLength;
+        this.pending.add(this.executor.submit(() -> compress(data, length)));
+        this.submittedAny = true;
+
+        this.block = new byte[data.length];
+        this.blockLength = 0;
+    }
+
+    /**
+     * Waits for a member to finish compressing and writes it to the underlying stream.
+     *
+     * @param member the member
+     *
+     * @throws IOException if compressing or writing fails
+     */
+    private void writeMember(final Future<byte[]> member) throws IOException {
+        try {
+            this.out.write(member.get());
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Unable to compress block", ex.getCause());
+        }
+    }
+
+    /**
+     * Ensures that the stream has not been closed yet.
+     *
+     * @throws IOException if the stream has been closed
+     */
+    private void ensureOpen() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Compresses a block into a single gzip member.
+     *
+     * @param data the buffer containing the block
+     * @param length the length of the block
+     *
+     * @return the gzip member
+     *
+     * @throws IOException if compressing fails
+     */
+    private static byte[] compress(final byte[] data, final int length) throws IOException {
+        final var buffer = new ByteArrayOutputStream(length / 2 + 64);
+        try (var gzip = new GzipCompressorOutputStream(buffer)) {
+            gzip.write(data, 0, length);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,54 @@
+package nl.f00f.unpacker;
+
+import org.jetbrains.annotations.Contract;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * The outcome of unpacking an archive.
+ */
+public final class UnpackResult {
+    /**
+     * The files that were unpacked.
+     */
+    private final Collection<Path> files;
+
+    /**
+     * The digests of the files that were unpacked.
+     */
+    private final Manifest manifest;
+
+    /**
+     * Creates a new unpack result.
+     *
+     * @param files the files that were unpacked
+     * @param manifest the digests of the files that were unpacked
+     */
+    @Contract(pure = true)
+    UnpackResult(final Collection<Path> files, final Manifest manifest) {
+        this.files = Collections.unmodifiableCollection(files);
+        this.manifest = manifest;
+    }
+
+    /**
+     * Returns the files (not directories) that were unpacked, rooted at the target directory.
+     *
+     * @return the unpacked files
+     */
+    @Contract(pure = true)
+    public Collection<Path> getFiles() {
+        return this.files;
+    }
+
+    /**
+     * Returns the digests of the files that were unpacked.
+     *
+     * @return the manifest
+     */
+    @Contract(pure = true)
+    public Manifest getManifest() {
+        return this.manifest;
+    }
+}
@@ -1,32 +1,69 @@
 package nl.f00f.unpacker;
 
+import com.github.luben.zstd.ZstdInputStream;
 import nl.f00f.unpacker.settings.UnpackerSettings;
+import org.apache.commons.compress.MemoryLimitException;
 import org.apache.commons.compress.archivers.ArchiveEntry;
-import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
+import org.apache.commons.compress.archivers.sevenz.SevenZFile;
+import org.apache.commons.compress.archivers.sevenz.SevenZFileOptions;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
 import org.apache.commons.compress.compressors.lzma.LZMACompressorInputStream;
 import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
 import org.apache.commons.compress.compressors.z.ZCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+import org.apache.commons.compress.utils.CountingInputStream;
 import org.apache.commons.compress.utils.IOUtils;
 import org.jetbrains.annotations.Contract;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.tukaani.xz.LZMAInputStream;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.XZInputStream;
 
 import javax.annotation.Nullable;
 import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
 /**
  * Unpacks an archive.
@@ -34,43 +71,141 @@ import java.util.regex.Pattern;
 public class Unpacker {
     private static final Logger logger = LoggerFactory.getLogger(Unpacker.class);
 
+    /**
+     * The name of the tar decompressor that does not decompress, whose archives hold the entry
+     * contents as is.
+     */
+    private static final String UNCOMPRESSED_TAR = "tar";
+
     /**
      * Tar decompressor algorithms.
      */
     private static final List<TarDecompressor> ALGORITHMS = List.of(
-            new TarDecompressor("tar", Pattern.compile(".*?\\.tar$"), TarArchiveInputStream::new),
+            new TarDecompressor(
+                    UNCOMPRESSED_TAR,
+                    Pattern.compile(".*?\\.tar$"),
+                    TarArchiveInputStream::matches,
+                    (in, pool, limit) -> in,
+                    (path, offset, pool) -> openAt(path, offset)
+            ),
             new TarDecompressor(
                     "tar.gz",
                     Pattern.compile(".*?(?:\\.tar\\.gz|\\.tgz|\\.tpz)$"),
-                    in -> new TarArchiveInputStream(new GzipCompressorInputStream(in))
+                    GzipCompressorInputStream::matches,
+                    // Accept multi-member files, such as those written by the Packer
+                    (in, pool, limit) -> new GzipCompressorInputStream(in, true)
             ),
             new TarDecompressor(
                     "tar.bz2",
                     Pattern.compile(".*?(?:\\.tar\\.bz2|\\.tar\\.bzip2|\\.tbz|\\.tbz2|\\.tb2)$"),
-                    in -> new TarArchiveInputStream(new BZip2CompressorInputStream(in))
+                    BZip2CompressorInputStream::matches,
+                    (in, pool, limit) -> new BZip2CompressorInputStream(in)
             ),
             new TarDecompressor(
                     "tar.lzma",
                     Pattern.compile(".*?(?:\\.tar\\.lzma|\\.tlz|\\.tlzma)$"),
-                    in -> new TarArchiveInputStream(new LZMACompressorInputStream(in))
+                    LZMACompressorInputStream::matches,
+                    (in, pool, limit) -> new LZMAInputStream(in, limit, pool.getArrayCache())
             ),
             new TarDecompressor(
                     "tar.xz",
                     Pattern.compile(".*?(?:\\.tar\\.xz|\\.txz)$"),
-                    in -> new TarArchiveInputStream(new XZCompressorInputStream(in))
+                    XZCompressorInputStream::matches,
+                    (in, pool, limit) -> new XZInputStream(in, limit, pool.getArrayCache()),
+                    Unpacker::openXzAt
             ),
             new TarDecompressor(
                     "tar.Z",
                     Pattern.compile(".*?(?:\\.tar\\.Z|\\.tZ)$"),
-                    in -> new TarArchiveInputStream(new ZCompressorInputStream(in))
+                    ZCompressorInputStream::matches,
+                    (in, pool, limit) -> new ZCompressorInputStream(in, limit)
+            ),
+            new TarDecompressor(
+                    "tar.zst",
+                    Pattern.compile(".*?(?:\\.tar\\.zst|\\.tar\\.zstd|\\.tzst)$"),
+                    ZstdUtils::matches,
+                    // Decodes all frames of multi-frame files one after another
+                    Unpacker::openZstd
+            ),
+            new TarDecompressor(
+                    "tar.lz4",
+                    Pattern.compile(".*?(?:\\.tar\\.lz4|\\.tlz4)$"),
+                    FramedLZ4CompressorInputStream::matches,
+                    (in, pool, limit) -> new FramedLZ4CompressorInputStream(in, true)
             )
     );
 
+    /**
+     * The number of bytes read to detect the archive type from its contents: one tar header.
+     */
+    private static final int SIGNATURE_SIZE = 512;
+
+    /**
+     * The memory limit of decoders that unpack an archive, in KiB: none. The size limits apply
+     * to the unpacked contents instead.
+     */
+    private static final int NO_MEMORY_LIMIT = -1;
+
+    /**
+     * The memory limit of decoders that detect the archive type from the contents, in KiB.
+     * Detection runs on any file with an unknown extension, so a few bytes that happen to look
+     * like a header must not make a decoder allocate a huge dictionary. The limit leaves room for
+     * archives compressed with {@code xz -9}, which need 65 MiB.
+     *
+     * Only the lzma, xz, Z and zstd decoders take the limit. The gzip, bzip2 and lz4 formats cap
+     * their window or block size, so their decoders need a few MiB at most whatever the header
+     * says; a bzip2 block, for instance, holds at most 900 kB.
+     */
+    private static final int DETECTION_MEMORY_LIMIT = 96 * 1024;
+
+    /**
+     * The most bytes skipped at once when passing over entries, so cancellation is checked in
+     * between. Decompressing streams skip by decoding, which takes a while for large entries.
+     */
+    private static final long SKIP_STEP_SIZE = 1024 * 1024;
+
+    /**
+     * The size of a tar record; entries start at record boundaries.
+     */
+    private static final int TAR_RECORD_SIZE = 512;
+
+    /**
+     * The memory limit of 7z decoders, in KiB. The ranges of a parallel extraction share it, so
+     * an archive never takes more than this in total. It leaves room for custom dictionaries up
+     * to 256 MiB.
+     */
+    private static final int SEVEN_Z_MEMORY_LIMIT = 260 * 1024;
+
+    /**
+     * The share of {@link #SEVEN_Z_MEMORY_LIMIT} every range of a parallel extraction gets at
+     * least, in KiB. Archives made with the largest 7-Zip preset ({@code -mx9}) have a 64 MiB
+     * dictionary, which needs about 65 MiB to decode.
+     */
+    private static final int SEVEN_Z_RANGE_MEMORY_LIMIT = 65 * 1024;
+
+    /**
+     * The fixed size every 7z entry counts as when splitting an archive into ranges, which
+     * stands for the cost of creating a file.
+     */
+    private static final long SEVEN_Z_ENTRY_WEIGHT = 64 * 1024;
+
     /**
      * The worker settings. Used to find the size limits for extracted ZIPs.
      */
     private final UnpackerSettings settings;
 
+    /**
+     * The decoder state shared by all unpacking operations of this unpacker.
+     */
+    private final DecoderPool decoderPool = new DecoderPool();
+
+    /**
+     * The threads that unpack the ranges of 7z archives, shared by all unpacking operations of
+     * this unpacker. Created on first use.
+     */
+    @Nullable
+    private ExecutorService rangeExecutor;
+
     /**
      * Creates a new unpacker.
      *
@@ -95,112 +230,339 @@ public class Unpacker {
      * @throws IOException if uncompressing fails
      */
     public Collection<Path> unpack(final Path arPath, final Path targetDir) throws IOException {
+        return this.unpack(arPath, targetDir, CancellationToken.NONE);
+    }
+
+    /**
+     * Unpacks an archive into a given directory, aborting when a cancellation token is cancelled.
+     *
+     * The token is checked between entries and while the contents of an entry are copied. When
+     * it is cancelled or its deadline passes, the files unpacked so far are removed again.
+     *
+     * @param arPath the archive to unpack
+     * @param targetDir the directory the uncompressed files are to be written to
+     * @param token the token that aborts unpacking
+     *
+     * @return the collection of uncompressed files
+     *
+     * @throws IOException if uncompressing fails
+     * @throws ExtractionCancelledException if the token was cancelled
+     */
+    public Collection<Path> unpack(
+            final Path arPath, final Path targetDir, final CancellationToken token
+    ) throws IOException {
+        return this.unpackWithManifest(arPath, targetDir, token).getFiles();
+    }
+
+    /**
+     * Unpacks an archive into a given directory, computing the digests of the unpacked files.
+     *
+     * The digests configured in {@link UnpackerSettings#getDigestAlgorithms()} are computed
+     * while the files are written, so the files do not have to be read again afterwards. The
+     * contents of zip entries are always verified against their stored CRC-32.
+     *
+     * If the archive type can not be determined, the archive itself is treated as the single
+     * file to unpack.
+     *
+     * @param arPath the archive to unpack
+     * @param targetDir the directory the uncompressed files are to be written to
+     *
+     * @return the uncompressed files and their digests
+     *
+     * @throws IOException if uncompressing fails
+     */
+    public UnpackResult unpackWithManifest(
+            final Path arPath, final Path targetDir
+    ) throws IOException {
+        return this.unpackWithManifest(arPath, targetDir, CancellationToken.NONE);
+    }
+
+    /**
+     * Unpacks an archive into a given directory, computing the digests of the unpacked files and
+     * aborting when a cancellation token is cancelled.
+     *
+     * The token is checked between entries and while the contents of an entry are copied. When
+     * it is cancelled or its deadline passes, the files unpacked so far are removed again.
+     *
+     * @param arPath the archive to unpack
+     * @param targetDir the directory the uncompressed files are to be written to
+     * @param token the token that aborts unpacking
+     *
+     * @return the uncompressed files and their digests
+     *
+     * @throws IOException if uncompressing fails
+     * @throws ExtractionCancelledException if the token was cancelled
+     *
+     * @see #unpackWithManifest(Path, Path)
+     */
+    public UnpackResult unpackWithManifest(
+            final Path arPath, final Path targetDir, final CancellationToken token
+    ) throws IOException {
+        token.throwIfCancelled();
+
         final var pathStr = arPath.toString();
 
         if (pathStr.endsWith(".zip")) {
-            return this.unzip(arPath, targetDir);
+            return this.unzip(arPath, targetDir, token);
+        }
+
+        if (pathStr.endsWith(".7z")) {
+            return this.unsevenzip(arPath, targetDir, token);
         }
 
         @Nullable
-        final var tarDecompressor = ALGORITHMS.stream()
-                .filter(a -> a.extensionMatcher.matcher(pathStr).matches())
-                .findAny()
-                .orElse(null);
+        final var tarDecompressor = this.findTarDecompressor(arPath);
 
         if (tarDecompressor != null) {
-            return this.untar(arPath, tarDecompressor, targetDir);
+            return this.untar(arPath, tarDecompressor, targetDir, token);
         }
 
-        return this.copySingleFile(arPath, targetDir);
+        return this.copySingleFile(arPath, targetDir, token);
     }
 
     /**
-     * Unpacks a zip archive.
+     * Summarizes the contents of an archive without extracting it.
      *
-     * @param zipPath the path to the zip file
-     * @param targetDir the directory where to unzip into
+     * For zip and 7z archives only the central directory or header is read. For tar archives
+     * only the entry headers are parsed; the entry data is skipped, which is a seek for
+     * uncompressed tar archives and a pass through the decompressor for compressed ones.
      *
-     * @return the files (not directories) that were unzipped
+     * If the archive type can not be determined, the file is summarized as a single file, just
+     * like {@link #unpack(Path, Path)} would copy it as a single file.
      *
-     * @throws IOException if the file couldn't be unzipped
+     * @param arPath the archive to inspect
+     *
+     * @return the summary of the archive
+     *
+     * @throws IOException if reading the archive fails
      */
-    private Collection<Path> unzip(final Path zipPath, final Path targetDir) throws IOException {
-        final var files = new ArrayList<Path>();
-
-        logger.trace("Unpacking zip file {}", zipPath);
+    public ArchiveSummary inspect(final Path arPath) throws IOException {
+        final var pathStr = arPath.toString();
+        final var archiveSize = Files.size(arPath);
 
-        try (var zip = new ZipFile(zipPath.toFile())) {
-            var totalSize = 0L;
+        if (pathStr.endsWith(".zip")) {
+            return this.inspectZip(arPath, archiveSize);
+        }
 
-            final var entries = Collections.list(zip.getEntries());
+        if (pathStr.endsWith(".7z")) {
+            return this.inspectSevenZ(arPath, archiveSize);
+        }
 
-            files.ensureCapacity(entries.size());
+        @Nullable
+        final var tarDecompressor = this.findTarDecompressor(arPath);
 
-            // Create the directories first so a skeleton exists
-            entries.stream()
-                    .map(ZipArchiveEntry::getName)
-                    .map(targetDir::resolve)
-                    .map(d -> Files.isDirectory(d) ? d : d.getParent())
-                    .forEach(this::createDirectory);
+        if (tarDecompressor != null) {
+            return this.inspectTar(arPath, tarDecompressor, archiveSize);
+        }
 
-            // Then extract the actual files
-            for (final var entry : entries) {
-                if (entry.isDirectory()) {
-                    continue;
-                }
+        final var collector = new SummaryCollector();
+        collector.addFile(pathStr, archiveSize);
+        return collector.build("file", archiveSize);
+    }
 
-                final var entryPath = targetDir.resolve(entry.getName());
-                this.assertWithinTargetDir(entryPath, targetDir);
+    /**
+     * Summarizes a zip archive from its central directory.
+     *
+     * @param zipPath the path to the zip file
+     * @param archiveSize the size of the zip file
+     *
+     * @return the summary
+     *
+     * @throws IOException if the central directory couldn't be read
+     */
+    private ArchiveSummary inspectZip(
+            final Path zipPath, final long archiveSize
+    ) throws IOException {
+        logger.trace("Inspecting zip file {}", zipPath);
 
-                totalSize = this.trackSize(totalSize, entry);
+        final var collector = new SummaryCollector();
 
-                try (var in = zip.getInputStream(entry);
-                     var out = Files.newOutputStream(entryPath)) {
-                    IOUtils.copy(in, out);
-                }
-                files.add(entryPath);
+        try (var zip = new ZipFile(zipPath.toFile())) {
+            final var entries = zip.getEntries();
+            while (entries.hasMoreElements()) {
+                collector.add(entries.nextElement());
             }
-        } catch (final IOException | RuntimeException ex) {
-            // Clean up in case of an error.
-            // NB: this should NOT happen in a finally block
-            this.cleanFiles(files);
+        }
 
-            throw ex;
+        return collector.build("zip", archiveSize);
+    }
+
+    /**
+     * Summarizes a 7z archive from its header.
+     *
+     * @param arPath the path to the 7z file
+     * @param archiveSize the size of the 7z file
+     *
+     * @return the summary
+     *
+     * @throws IOException if the header couldn't be read
+     */
+    private ArchiveSummary inspectSevenZ(
+            final Path arPath, final long archiveSize
+    ) throws IOException {
+        logger.trace("Inspecting 7z file {}", arPath);
+
+        final var collector = new SummaryCollector();
+
+        try (var sevenZ = openSevenZ(arPath, SEVEN_Z_MEMORY_LIMIT, CancellationToken.NONE)) {
+            for (final var entry : sevenZ.getEntries()) {
+                collector.add(entry);
+            }
         }
 
-        return files;
+        return collector.build("7z", archiveSize);
     }
 
     /**
-     * Unpacks a tar archive.
+     * Summarizes a tar archive from its entry headers.
      *
-     * @param arPath the path to the archive to decompress
+     * @param arPath the path to the archive
      * @param decompressor the decompression algorithm stack to use
-     * @param targetDir the directory uncompressed files should be written to
+     * @param archiveSize the size of the archive file
      *
-     * @return the files that were in the archive
+     * @return the summary
      *
-     * @throws IOException if uncompressing fails
+     * @throws IOException if the headers couldn't be read
      */
-    private Collection<Path> untar(
-            final Path arPath, final TarDecompressor decompressor, final Path targetDir
+    private ArchiveSummary inspectTar(
+            final Path arPath, final TarDecompressor decompressor, final long archiveSize
     ) throws IOException {
-        final var files = new ArrayList<Path>();
+        logger.trace("Inspecting {} file {}", decompressor.name, arPath);
 
-        logger.trace("Unpacking {} file {}", decompressor.name, arPath);
+        final var collector = new SummaryCollector();
+
+        // Moving to the next entry skips the data of the current one. The buffered stream passes
+        // skips through to the file stream when its buffer is empty, so an uncompressed tar is
+        // traversed by seeking from header to header.
+        try (var pin = Files.newInputStream(arPath);
+             var bin = new BufferedInputStream(pin);
+             var din = decompressor.streamTransformer.apply(
+                     bin, this.decoderPool, NO_MEMORY_LIMIT
+             );
+             var tin = new TarArchiveInputStream(din)
+        ) {
+            ArchiveEntry entry;
+            while ((entry = tin.getNextEntry()) != null) {
+                collector.add(entry);
+            }
+        }
+
+        return collector.build(decompressor.name, archiveSize);
+    }
+
+    /**
+     * Finds the tar decompression stack that handles the given file.
+     *
+     * The stack is chosen by the file's extension. If the extension is not recognized, the
+     * stack is chosen by the file's magic bytes instead, provided that the decompressed contents
+     * start with a tar header.
+     *
+     * @param arPath the file
+     *
+     * @return the decompression stack, or {@code null} if the file is not a known tar archive
+     *
+     * @throws IOException if the file couldn't be read
+     */
+    @Nullable
+    private TarDecompressor findTarDecompressor(final Path arPath) throws IOException {
+        final var pathStr = arPath.toString();
+        for (final var algorithm : ALGORITHMS) {
+            if (algorithm.extensionMatcher.matcher(pathStr).matches()) {
+                return algorithm;
+            }
+        }
+
+        final var signature = new byte[SIGNATURE_SIZE];
+        final int length;
+        try (var in = Files.newInputStream(arPath)) {
+            length = IOUtils.readFully(in, signature);
+        }
+
+        for (final var algorithm : ALGORITHMS) {
+            if (algorithm.signatureMatcher.matches(signature, length)
+                    && this.isTar(arPath, algorithm)) {
+                logger.debug("Detected {} as {} by its contents", arPath, algorithm.name);
+                return algorithm;
+            }
+        }
 
+        return null;
+    }
+
+    /**
+     * Checks whether a file decompresses to a tar archive with the given decompression stack.
+     *
+     * @param arPath the file
+     * @param decompressor the decompression stack
+     *
+     * @return whether the decompressed contents start with a tar header
+     */
+    private boolean isTar(final Path arPath, final TarDecompressor decompressor) {
         try (var pin = Files.newInputStream(arPath);
              var bin = new BufferedInputStream(pin);
-             var tin = decompressor.streamTransformer.apply(bin);
-             var tar = new ArchiveInputStreamIterableAdaptor(tin).iterator()
+             var din = decompressor.streamTransformer.apply(
+                     bin, this.decoderPool, DETECTION_MEMORY_LIMIT
+             )
         ) {
+            final var header = new byte[SIGNATURE_SIZE];
+            final var length = IOUtils.readFully(din, header);
+            return TarArchiveInputStream.matches(header, length);
+        } catch (final IOException ex) {
+            logger.trace("{} is not a {} file", arPath, decompressor.name, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Unpacks a zip archive.
+     *
+     * @param zipPath the path to the zip file
+     * @param targetDir the directory where to unzip into
+     * @param token the token that aborts unpacking
+     *
+     * @return the files (not directories) that were unzipped
+     *
+     * @throws IOException if the file couldn't be unzipped
+     */
+    private UnpackResult unzip(
+            final Path zipPath, final Path targetDir, final CancellationToken token
+    ) throws IOException {
+        final var files = new ArrayList<Path>();
+        final var digests = new LinkedHashMap<Path, Map<String, String>>();
+        final var writer = new EntryWriter(this.settings, true, token);
+        final var inflating = new InflatingInputStream();
+
+        logger.trace("Unpacking zip file {}", zipPath);
+
+        @Nullable
+        final var mapped = this.settings.isMemoryMapped() ? MappedFile.map(zipPath) : null;
+
+        @Nullable
+        final var journal = this.openJournal(zipPath, targetDir);
+
+        // The file being written, which is incomplete if unpacking fails
+        @Nullable
+        Path pending = null;
+
+        try (journal; var zip = openZip(zipPath, mapped)) {
             var totalSize = 0L;
 
-            while (tar.hasNext()) {
-                final var entry = tar.next();
+            @Nullable
+            final var duplicates = this.settings.isDeduplicating() ? DuplicateIndex.of(zip) : null;
+
+            // The entry whose parent directory was created last, to skip creating it again
+            @Nullable
+            String parentCreatedFor = null;
 
-                final var entryPath = targetDir.resolve(entry.getName());
-                this.assertWithinTargetDir(entryPath, targetDir);
+            final var entries = zip.getEntries();
+            while (entries.hasMoreElements()) {
+                token.throwIfCancelled();
+
+                final var entry = entries.nextElement();
+                final var name = entry.getName();
+                this.assertWithinTargetDir(name, entry.isDirectory(), targetDir);
+
+                final var entryPath = targetDir.resolve(name);
 
                 if (entry.isDirectory()) {
                     this.createDirectory(entryPath);
@@ -209,100 +571,1581 @@ public class Unpacker {
 
                 totalSize = this.trackSize(totalSize, entry);
 
-                this.createDirectory(entryPath.getParent());
+                if (!hasSameParent(name, parentCreatedFor)) {
+                    this.createDirectory(entryPath.getParent());
+                    parentCreatedFor = name;
+                }
+
+                if (journal != null) {
+                    assertNotJournal(entryPath, journal);
 
-                try (var out = Files.newOutputStream(entryPath)) {
-                    IOUtils.copy(tin, out);
+                    // Zip entries can be read in any order, so completed ones are simply passed
+                    if (this.isCompleted(
+                            journal.find(name, -1), entry.getSize(), entry.getCrc(), entryPath, writer
+                    )) {
+                        files.add(entryPath);
+                        this.addDigests(digests, entryPath, writer);
+                        continue;
+                    }
                 }
+
                 files.add(entryPath);
+                pending = entryPath;
+
+                final long size;
+                if (duplicates == null) {
+                    size = this.writeZipEntry(zip, mapped, entry, entryPath, writer, inflating);
+                } else {
+                    duplicates.release(entryPath);
+                    size = this.writeOrLinkZipEntry(
+                            zip, mapped, entry, entryPath, writer, inflating, duplicates
+                    );
+                }
+
+                if (entry.getCrc() != ZipArchiveEntry.CRC_UNKNOWN
+                        && entry.getCrc() != writer.getCrc()) {
+                    throw new ZipException(
+                            "CRC mismatch for " + entry.getName()
+                                    + ": expected " + Long.toHexString(entry.getCrc())
+                                    + ", got " + Long.toHexString(writer.getCrc())
+                    );
+                }
+
+                if (journal != null) {
+                    journal.record(name, -1, -1, size, writer.getCrc());
+                }
+                pending = null;
+
+                this.addDigests(digests, entryPath, writer);
+            }
+
+            writer.finish();
+            if (journal != null) {
+                journal.delete();
             }
         } catch (final IOException | RuntimeException ex) {
             // Clean up in case of an error.
             // NB: this should NOT happen in a finally block
-            this.cleanFiles(files);
+            this.rollBack(files, pending, journal, targetDir, ex);
+
             throw ex;
         }
 
-        return files;
+        return new UnpackResult(files, new Manifest(digests));
     }
 
     /**
-     * Attempts to delete all files in the given collection.
+     * Opens a zip file, reading it from memory if it is mapped.
      *
-     * @param files the files to delete
-     */
-    private void cleanFiles(final Collection<Path> files) {
-        for (final var path : files) {
-            try {
-                Files.deleteIfExists(path);
-            } catch (final Exception dex) {
-                logger.warn("Unable to clean file {}", path.toAbsolutePath(), dex);
-            }
-        }
-    }
-
-    /**
-     * Checks if the entry's path is within the submission's target directory. If it is not, a
-     * {@link MaliciousArchiveException} is thrown.
+     * @param zipPath the path to the zip file
+     * @param mapped the mapped zip file, or {@code null} to read it from disk
      *
-     * @param entryPath the entry's path
-     * @param targetDir the submission's base dir the entry path should be within
+     * @return the zip file
      *
-     * @throws MaliciousArchiveException if the entry's path is outside the target directory
+     * @throws IOException if the zip file can not be opened
      */
-    private void assertWithinTargetDir(final Path entryPath, final Path targetDir) {
-        if (!entryPath.startsWith(targetDir)) {
-            throw new MaliciousArchiveException(
-                    entryPath.toAbsolutePath()
-                            + " is outside the extraction path "
-                            + targetDir.toAbsolutePath()
-            );
+    private static ZipFile openZip(
+            final Path zipPath, final @Nullable MappedFile mapped
+    ) throws IOException {
+        if (mapped == null) {
+            return new ZipFile(zipPath.toFile());
         }
+
+        // The same encoding and extra field handling as the file constructor
+        return new ZipFile(mapped.channel(), zipPath.toString(), "UTF8", true);
     }
 
     /**
-     * Keeps track of the total size of the submission, checking it it remains within configured
-     * limits.
+     * Writes the contents of a zip entry to a file.
      *
-     * @param totalSize the total size before adding the entry
-     * @param entry the entry to be added
+     * Stored entries in a mapped zip file are written straight from the mapping.
      *
-     * @return the new total size
+     * @param zip the zip file
+     * @param mapped the mapped zip file, or {@code null} if it is read from disk
+     * @param entry the entry to write
+     * @param entryPath the file to write to
+     * @param writer the entry writer
+     * @param inflating the stream to inflate deflated entries with
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException if the entry couldn't be written
      */
-    private long trackSize(final long totalSize, final ArchiveEntry entry) {
-        final var newSize = totalSize + entry.getSize();
-        final var maxSize = this.settings.getMaxUnpackedArchiveSize();
+    private long writeZipEntry(
+            final ZipFile zip,
+            final @Nullable MappedFile mapped,
+            final ZipArchiveEntry entry,
+            final Path entryPath,
+            final EntryWriter writer,
+            final InflatingInputStream inflating
+    ) throws IOException {
+        if (mapped != null
+                && entry.getMethod() == ZipEntry.STORED
+                && entry.getSize() >= 0
+                && zip.canReadEntryData(entry)) {
+            // Newer versions of Commons Compress only locate the data when it is first read
+            if (entry.getDataOffset() < 0) {
+                zip.getRawInputStream(entry).close();
+            }
 
-        if (newSize >= maxSize) {
-            throw new MaliciousArchiveException(
-                    "Archive is too big: limit is " + maxSize
-                            + "; archive size so far is " + newSize
-            );
+            final var offset = entry.getDataOffset();
+            if (offset >= 0) {
+                return writer.write(mapped, offset, entry.getSize(), entryPath);
+            }
         }
 
-        return newSize;
+        return this.readZipEntry(
+                zip, entry, inflating, in -> writer.write(in, entryPath, entry.getSize())
+        );
     }
 
     /**
-     * Copies a single file to a new directory.
+     * Writes the contents of a candidate duplicate zip entry to a file, or hard links the file
+     * to an identical file written before.
      *
-     * @param path the path to the file
-     * @param targetDir the directory to copy to
+     * If an entry with the same CRC-32 and size was written before, the contents of this entry
+     * are read first to compute their digest, without writing them. Only if no identical file
+     * turns up are they read again and written.
      *
-     * @return the path of the new file
+     * @param zip the zip file
+     * @param mapped the mapped zip file, or {@code null} if it is read from disk
+     * @param entry the entry to write
+     * @param entryPath the file to write to
+     * @param writer the entry writer
+     * @param inflating the stream to inflate deflated entries with
+     * @param duplicates the index of candidate duplicates
      *
-     * @throws IOException if the file couldn't be copied
+     * @return the size of the file
+     *
+     * @throws IOException if the entry couldn't be written or linked
      */
-    private Collection<Path> copySingleFile(
-            final Path path, final Path targetDir
+    private long writeOrLinkZipEntry(
+            final ZipFile zip,
+            final @Nullable MappedFile mapped,
+            final ZipArchiveEntry entry,
+            final Path entryPath,
+            final EntryWriter writer,
+            final InflatingInputStream inflating,
+            final DuplicateIndex duplicates
+    ) throws IOException {
+        if (!duplicates.isCandidate(entry)) {
+            return this.writeZipEntry(zip, mapped, entry, entryPath, writer, inflating);
+        }
+
+        if (duplicates.hasWritten(entry)) {
+            final var digest = this.readZipEntry(zip, entry, inflating, writer::digest);
+
+            @Nullable
+            final var existing = duplicates.find(entry, digest);
+            if (existing != null) {
+                this.createHardLink(entryPath, existing);
+                duplicates.addLink(entryPath);
+                return entry.getSize();
+            }
+
+            logger.debug("{} matches the CRC-32 and size of another entry, but not its contents",
+                    entry.getName());
+
+            // Reading fed the contents to the digests, which must only see them once
+            writer.finishDigests();
+        }
+
+        writer.digestNextEntry();
+        final var size = this.writeZipEntry(zip, mapped, entry, entryPath, writer, inflating);
+        duplicates.addWritten(entry, writer.finishContentDigest(), entryPath);
+        return size;
+    }
+
+    /**
+     * Reads the contents of a zip entry.
+     *
+     * Deflated entries are inflated with a pooled inflater through a reused stream; other
+     * entries are decoded by the zip file itself.
+     *
+     * @param zip the zip file
+     * @param entry the entry to read
+     * @param inflating the stream to inflate deflated entries with
+     * @param reader the function consuming the contents
+     * @param <T> the type of the result of the reader
+     *
+     * @return the result of the reader
+     *
+     * @throws IOException if the entry couldn't be read
+     */
+    private <T> T readZipEntry(
+            final ZipFile zip,
+            final ZipArchiveEntry entry,
+            final InflatingInputStream inflating,
+            final EntryReader<T> reader
+    ) throws IOException {
+        if (entry.getMethod() != ZipEntry.DEFLATED) {
+            try (var in = zip.getInputStream(entry)) {
+                return reader.read(in);
+            }
+        }
+
+        final var inflater = this.decoderPool.borrowInflater();
+        try (var raw = zip.getRawInputStream(entry)) {
+            inflating.reset(raw, inflater);
+            return reader.read(inflating);
+        } finally {
+            inflating.close();
+            this.decoderPool.returnInflater(inflater);
+        }
+    }
+
+    /**
+     * Unpacks a tar archive.
+     *
+     * @param arPath the path to the archive to decompress
+     * @param decompressor the decompression algorithm stack to use
+     * @param targetDir the directory uncompressed files should be written to
+     * @param token the token that aborts unpacking
+     *
+     * @return the files that were in the archive
+     *
+     * @throws IOException if uncompressing fails
+     */
+    private UnpackResult untar(
+            final Path arPath,
+            final TarDecompressor decompressor,
+            final Path targetDir,
+            final CancellationToken token
+    ) throws IOException {
+        final var files = new ArrayList<Path>();
+
+        // Keyed by normalized path, so hard links find their target under any spelling
+        final var digests = new HashMap<Path, Map<String, String>>();
+
+        logger.trace("Unpacking {} file {}", decompressor.name, arPath);
+
+        // Only uncompressed archives hold the entry contents as is
+        @Nullable
+        final var mapped = this.settings.isMemoryMapped()
+                && decompressor.name.equals(UNCOMPRESSED_TAR)
+                ? MappedFile.map(arPath)
+                : null;
+
+        @Nullable
+        final var journal = this.openJournal(arPath, targetDir);
+
+        // CRCs are only needed to verify files when resuming
+        final var writer = new EntryWriter(this.settings, journal != null, token);
+
+        // Symbolic links can redirect later entries, so then the real paths are checked as well
+        @Nullable
+        final var realTargetDir = this.settings.isSymbolicLinksAllowed()
+                ? targetDir.toRealPath()
+                : null;
+
+        // The file being written, which is incomplete if unpacking fails
+        @Nullable
+        Path pending = null;
+
+        try (journal) {
+            var totalSize = 0L;
+
+            // Where the stack can seek, jump past the entries completed by an earlier attempt
+            var offset = 0L;
+            if (journal != null && decompressor.seekableTransformer != null) {
+                for (final var record : this.verifyCompleted(journal, targetDir, files, digests, writer)) {
+                    totalSize = this.trackSize(totalSize, Math.max(record.getSize(), 0));
+                    offset = record.getEnd();
+                }
+            }
+
+            try (var counting = new SkipCountingInputStream(new CancellableInputStream(
+                    mapped != null
+                            ? mapped.inputStream(offset, mapped.size())
+                            : this.openTarStream(arPath, decompressor, offset),
+                    token
+                 ));
+                 var tin = new TarArchiveInputStream(counting)
+            ) {
+                // The entry whose parent directory was created last, to skip creating it again
+                @Nullable
+                String parentCreatedFor = null;
+
+                TarArchiveEntry entry;
+                while ((entry = tin.getNextTarEntry()) != null) {
+                    token.throwIfCancelled();
+
+                    final var name = entry.getName();
+                    this.assertWithinTargetDir(name, entry.isDirectory(), targetDir);
+
+                    final var entryPath = targetDir.resolve(name);
+
+                    // The position of the entry identifies it in the journal
+                    final var position = offset + counting.getBytesRead();
+
+                    if (entry.isDirectory()) {
+                        this.createDirectory(entryPath);
+
+                        if (journal != null) {
+                            journal.record(
+                                    name, position, position, ExtractionJournal.DIRECTORY, 0
+                            );
+                        }
+                        continue;
+                    }
+
+                    totalSize = this.trackSize(totalSize, entry);
+
+                    if (!hasSameParent(name, parentCreatedFor)) {
+                        this.createDirectory(entryPath.getParent());
+
+                        if (realTargetDir != null) {
+                            this.assertRealPathWithinTargetDir(entryPath.getParent(), realTargetDir);
+                        }
+
+                        parentCreatedFor = name;
+                    }
+
+                    if (entry.isSymbolicLink() && realTargetDir == null) {
+                        logger.debug("Skipping symbolic link {}", name);
+
+                        if (journal != null) {
+                            journal.record(name, position, position, ExtractionJournal.SKIPPED, 0);
+                        }
+                        continue;
+                    }
+
+                    if (journal != null) {
+                        assertNotJournal(entryPath, journal);
+
+                        // Completed entries are passed without writing, skipping their payload
+                        final var isLink = entry.isLink() || entry.isSymbolicLink();
+                        if (this.isCompleted(
+                                journal.find(name, position),
+                                isLink ? ExtractionJournal.LINK : logicalSize(entry),
+                                ZipArchiveEntry.CRC_UNKNOWN,
+                                entryPath,
+                                writer
+                        )) {
+                            files.add(entryPath);
+                            if (!isLink) {
+                                this.addDigests(digests, entryPath.normalize(), writer);
+                            }
+                            continue;
+                        }
+                    }
+
+                    if (entry.isLink()) {
+                        this.assertWithinTargetDir(entry.getLinkName(), false, targetDir);
+                        final var linkTarget = targetDir.resolve(entry.getLinkName()).normalize();
+
+                        // A symbolic link along the way may have been retargeted since
+                        if (realTargetDir != null) {
+                            this.assertRealPathWithinTargetDir(
+                                    linkTarget.getParent(), realTargetDir
+                            );
+                        }
+
+                        // Links change the directory tree, so check the next parent afresh
+                        parentCreatedFor = null;
+
+                        files.add(entryPath);
+                        this.createHardLink(entryPath, linkTarget);
+
+                        @Nullable
+                        final var targetDigests = digests.get(linkTarget);
+                        if (targetDigests != null) {
+                            digests.put(entryPath.normalize(), targetDigests);
+                        }
+
+                        if (journal != null) {
+                            journal.record(name, position, position, ExtractionJournal.LINK, 0);
+                        }
+                        continue;
+                    }
+
+                    if (entry.isSymbolicLink()) {
+                        assert realTargetDir != null : "Symbolic links are skipped if not allowed";
+
+                        parentCreatedFor = null;
+
+                        final var linkText = entryPath.getFileSystem().getPath(entry.getLinkName());
+                        this.assertLinkWithinTargetDir(
+                                entryPath.getParent(), linkText, realTargetDir
+                        );
+
+                        files.add(entryPath);
+                        EntryWriter.removeExisting(entryPath);
+                        Files.createSymbolicLink(entryPath, linkText);
+
+                        if (journal != null) {
+                            journal.record(name, position, position, ExtractionJournal.LINK, 0);
+                        }
+                        continue;
+                    }
+
+                    files.add(entryPath);
+                    pending = entryPath;
+
+                    final long size;
+                    if (isSparse(entry)) {
+                        size = writer.writeSparse(tin, entryPath);
+                    } else if (mapped != null) {
+                        size = writer.write(mapped, position, entry.getSize(), entryPath);
+
+                        // The tar stream still has to move past the contents
+                        IOUtils.skip(tin, size);
+                    } else {
+                        size = writer.write(tin, entryPath, entry.getSize());
+                    }
+
+                    if (journal != null) {
+                        // The next entry starts at the next record boundary
+                        final var end = offset + counting.getBytesRead();
+                        journal.record(name, position, roundUpToRecord(end), size, writer.getCrc());
+                    }
+                    pending = null;
+
+                    this.addDigests(digests, entryPath.normalize(), writer);
+                }
+            }
+
+            writer.finish();
+            if (journal != null) {
+                journal.delete();
+            }
+        } catch (final IOException | RuntimeException ex) {
+            // Clean up in case of an error.
+            // NB: this should NOT happen in a finally block
+            this.rollBack(files, pending, journal, targetDir, ex);
+            throw ex;
+        }
+
+        return new UnpackResult(files, tarManifest(files, digests));
+    }
+
+    /**
+     * Creates the manifest of an unpacked tar archive.
+     *
+     * @param files the unpacked files
+     * @param digests the digests per normalized file path
+     *
+     * @return the manifest, with the digests under the paths of the unpacked files
+     */
+    private static Manifest tarManifest(
+            final List<Path> files, final Map<Path, Map<String, String>> digests
+    ) {
+        final var fileDigests = new LinkedHashMap<Path, Map<String, String>>();
+        for (final var file : files) {
+            @Nullable
+            final var digest = digests.get(file.normalize());
+            if (digest != null) {
+                fileDigests.put(file, digest);
+            }
+        }
+        return new Manifest(fileDigests);
+    }
+
+    /**
+     * Opens the decompressed tar stream of an archive.
+     *
+     * @param arPath the archive
+     * @param decompressor the decompression stack
+     * @param offset the position in the decompressed stream to start at; only supported by
+     *               stacks that can seek
+     *
+     * @return the decompressed stream, positioned at the offset
+     *
+     * @throws IOException if the archive can not be opened
+     */
+    private InputStream openTarStream(
+            final Path arPath, final TarDecompressor decompressor, final long offset
+    ) throws IOException {
+        if (offset > 0) {
+            assert decompressor.seekableTransformer != null : "Only seekable stacks can resume";
+            return decompressor.seekableTransformer.open(arPath, offset, this.decoderPool);
+        }
+
+        final var in = new BufferedInputStream(Files.newInputStream(arPath));
+        try {
+            return decompressor.streamTransformer.apply(in, this.decoderPool, NO_MEMORY_LIMIT);
+        } catch (final IOException | RuntimeException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Opens the resumption journal for unpacking an archive, if unpacking is resumable.
+     *
+     * @param arPath the archive
+     * @param targetDir the directory the archive is unpacked into
+     *
+     * @return the journal, or {@code null} if unpacking is not resumable
+     *
+     * @throws IOException if the journal can not be opened
+     */
+    @Nullable
+    private ExtractionJournal openJournal(
+            final Path arPath, final Path targetDir
+    ) throws IOException {
+        if (!this.settings.isResumable()) {
+            return null;
+        }
+
+        final var journal = ExtractionJournal.open(targetDir, arPath);
+
+        // The names are used as paths when verifying or rolling back, so they must be safe too
+        for (final var record : journal.records()) {
+            // Only files and links are removed when rolling back, so only they must name a file
+            final var isFile = record.getSize() >= ExtractionJournal.LINK;
+            if (!isWithinTargetDir(record.getName(), !isFile)) {
+                logger.warn("Discarding journal {}, which records {} outside the extraction path",
+                        journal.getPath(), record.getName());
+                journal.delete();
+                return ExtractionJournal.open(targetDir, arPath);
+            }
+        }
+
+        return journal;
+    }
+
+    /**
+     * Checks if an entry was unpacked completely by an earlier attempt, by reading its file back
+     * and comparing it to the journal. If so, the writer holds the digests of the file.
+     *
+     * @param record the journal record of the entry, if any
+     * @param expectedSize the size of the entry according to the archive, or -1 if it is unknown
+     *                     or the entry is a link
+     * @param expectedCrc the CRC-32 of the entry according to the archive, or -1 if unknown
+     * @param entryPath the file of the entry
+     * @param writer the entry writer to read the file back with
+     *
+     * @return whether the entry can be skipped
+     *
+     * @throws IOException if reading the file back fails
+     */
+    private boolean isCompleted(
+            final @Nullable ExtractionJournal.Record record,
+            final long expectedSize,
+            final long expectedCrc,
+            final Path entryPath,
+            final EntryWriter writer
+    ) throws IOException {
+        if (record == null) {
+            return false;
+        }
+
+        // Only files have contents to verify
+        if (record.getSize() == ExtractionJournal.LINK) {
+            return Files.exists(entryPath, LinkOption.NOFOLLOW_LINKS);
+        }
+        if (record.getSize() == ExtractionJournal.DIRECTORY) {
+            return Files.isDirectory(entryPath, LinkOption.NOFOLLOW_LINKS);
+        }
+        if (record.getSize() == ExtractionJournal.SKIPPED) {
+            return true;
+        }
+        if (record.getSize() < 0) {
+            return false;
+        }
+
+        if (expectedSize >= 0 && record.getSize() != expectedSize
+                || expectedCrc >= 0 && record.getCrc() != expectedCrc
+                || !Files.isRegularFile(entryPath, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+
+        if (writer.readBack(entryPath) == record.getSize() && writer.getCrc() == record.getCrc()) {
+            return true;
+        }
+
+        // Discard the digests of the damaged file
+        writer.finishDigests();
+        return false;
+    }
+
+    /**
+     * Verifies the tar entries recorded in the journal in stream order, up to the first one
+     * that is no longer intact. The verified files are added to the result under construction.
+     *
+     * @param journal the journal
+     * @param targetDir the directory the archive is unpacked into
+     * @param files the unpacked files so far
+     * @param digests the digests per normalized file path so far
+     * @param writer the entry writer to read the files back with
+     *
+     * @return the records of the verified entries, in stream order
+     *
+     * @throws IOException if reading a file back fails
+     */
+    private List<ExtractionJournal.Record> verifyCompleted(
+            final ExtractionJournal journal,
+            final Path targetDir,
+            final List<Path> files,
+            final Map<Path, Map<String, String>> digests,
+            final EntryWriter writer
+    ) throws IOException {
+        final var verified = new ArrayList<ExtractionJournal.Record>();
+        for (final var record : journal.tarRecords()) {
+            final var entryPath = targetDir.resolve(record.getName());
+            if (!this.isCompleted(record, -1, -1, entryPath, writer)) {
+                break;
+            }
+
+            if (record.getSize() >= ExtractionJournal.LINK) {
+                files.add(entryPath);
+            }
+            if (record.getSize() >= 0) {
+                this.addDigests(digests, entryPath.normalize(), writer);
+            }
+            verified.add(record);
+        }
+
+        logger.debug("Skipping {} entries completed by an earlier attempt", verified.size());
+        return verified;
+    }
+
+    /**
+     * Rolls back a failed unpacking operation.
+     *
+     * If unpacking is resumable, only the file that was being written is removed, so the next
+     * attempt can continue where this one stopped. Otherwise, or if the archive turned out to be
+     * malicious, all unpacked files are removed, including those recorded in the journal.
+     *
+     * @param files the files unpacked so far
+     * @param pending the file that was being written, if any
+     * @param journal the resumption journal, if unpacking is resumable
+     * @param targetDir the directory the archive was unpacked into
+     * @param ex the exception that made unpacking fail
+     */
+    private void rollBack(
+            final Collection<Path> files,
+            final @Nullable Path pending,
+            final @Nullable ExtractionJournal journal,
+            final Path targetDir,
+            final Exception ex
+    ) {
+        if (journal != null && !(ex instanceof MaliciousArchiveException)) {
+            if (pending != null) {
+                this.cleanFiles(Collections.singleton(pending));
+            }
+            return;
+        }
+
+        this.cleanFiles(files);
+
+        if (journal != null) {
+            final var recorded = new ArrayList<Path>();
+            for (final var record : journal.records()) {
+                if (record.getSize() >= ExtractionJournal.LINK) {
+                    recorded.add(targetDir.resolve(record.getName()));
+                }
+            }
+            this.cleanFiles(recorded);
+
+            try {
+                journal.delete();
+            } catch (final IOException dex) {
+                logger.warn("Unable to clean journal {}", journal.getPath().toAbsolutePath(), dex);
+            }
+        }
+    }
+
+    /**
+     * Checks that an entry does not overwrite the resumption journal. If it does, a
+     * {@link MaliciousArchiveException} is thrown.
+     *
+     * @param entryPath the entry's path
+     * @param journal the resumption journal
+     *
+     * @throws MaliciousArchiveException if the entry would overwrite the journal
+     */
+    private static void assertNotJournal(final Path entryPath, final ExtractionJournal journal) {
+        if (entryPath.normalize().equals(journal.getPath().normalize())) {
+            throw new MaliciousArchiveException(
+                    entryPath.toAbsolutePath() + " would overwrite the extraction journal"
+            );
+        }
+    }
+
+    /**
+     * Rounds a position in a tar stream up to the next record boundary.
+     *
+     * @param position the position
+     *
+     * @return the position of the next record
+     */
+    @Contract(pure = true)
+    private static long roundUpToRecord(final long position) {
+        return (position + TAR_RECORD_SIZE - 1) / TAR_RECORD_SIZE * TAR_RECORD_SIZE;
+    }
+
+    /**
+     * Opens an uncompressed tar archive at a given position.
+     *
+     * @param arPath the archive
+     * @param offset the position
+     *
+     * @return the stream, positioned at the offset
+     *
+     * @throws IOException if the archive can not be opened
+     */
+    private static InputStream openAt(final Path arPath, final long offset) throws IOException {
+        final var channel = Files.newByteChannel(arPath);
+        try {
+            channel.position(offset);
+        } catch (final IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return new BufferedInputStream(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Opens the decompressed stream of an xz compressed tar archive at a given position.
+     *
+     * Decoding restarts at the xz block that contains the position, so archives compressed in
+     * multiple blocks, such as those written by multithreaded xz, resume without decoding what
+     * came before.
+     *
+     * @param arPath the archive
+     * @param offset the position in the decompressed stream
+     * @param pool the decoder pool to take the dictionary arrays from
+     *
+     * @return the decompressed stream, positioned at the offset
+     *
+     * @throws IOException if the archive can not be opened
+     */
+    private static InputStream openXzAt(
+            final Path arPath, final long offset, final DecoderPool pool
+    ) throws IOException {
+        final var file = new SeekableFileInputStream(arPath.toFile());
+        try {
+            final var xz = new SeekableXZInputStream(file, -1, pool.getArrayCache());
+            xz.seek(offset);
+            return xz;
+        } catch (final IOException | RuntimeException ex) {
+            file.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Opens a zstd decompressing stream.
+     *
+     * @param in the compressed stream
+     * @param pool the decoder pool, which has nothing to offer zstd
+     * @param memoryLimitInKb the memory limit in KiB, or {@link #NO_MEMORY_LIMIT} to accept the
+     *                        default window sizes of up to 128 MiB
+     *
+     * @return the decompressed stream
+     *
+     * @throws IOException if the stream can not be opened
+     */
+    private static InputStream openZstd(
+            final InputStream in, final DecoderPool pool, final int memoryLimitInKb
+    ) throws IOException {
+        final var zstd = new ZstdInputStream(in);
+        if (memoryLimitInKb != NO_MEMORY_LIMIT) {
+            // Frames need little memory besides their window, which is a power of two
+            final var limitLog = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(memoryLimitInKb);
+            zstd.setLongMax(limitLog + 10);
+        }
+        return zstd;
+    }
+
+    /**
+     * Unpacks a 7z archive.
+     *
+     * All names and sizes are in the header of the archive, so they are checked before anything
+     * is written. The entries are then split into as many consecutive ranges as the configured
+     * parallelism allows, and the ranges are unpacked in parallel. Ranges only start where a
+     * solid block does, so an archive that is a single solid block is unpacked sequentially.
+     *
+     * @param arPath the path to the 7z file
+     * @param targetDir the directory where to unpack into
+     * @param token the token that aborts unpacking
+     *
+     * @return the files (not directories) that were unpacked
+     *
+     * @throws IOException if the file couldn't be unpacked
+     */
+    private UnpackResult unsevenzip(
+            final Path arPath, final Path targetDir, final CancellationToken token
+    ) throws IOException {
+        logger.trace("Unpacking 7z file {}", arPath);
+
+        final var entries = new ArrayList<SevenZArchiveEntry>();
+        @Nullable
+        final int[] folders;
+        try (var sevenZ = openSevenZ(arPath, SEVEN_Z_MEMORY_LIMIT, token)) {
+            for (final var entry : sevenZ.getEntries()) {
+                entries.add(entry);
+            }
+            folders = folderIndices(sevenZ, entries.size());
+        }
+
+        var totalSize = 0L;
+        final var directories = new HashMap<Path, Boolean>();
+        for (final var entry : entries) {
+            this.assertWithinTargetDir(entry.getName(), entry.isDirectory(), targetDir);
+            if (!entry.isDirectory()) {
+                totalSize = this.trackSize(totalSize, entry);
+            }
+
+            // Ranges run at the same time, so they must never write the same path
+            final var entryPath = targetDir.resolve(entry.getName()).normalize();
+            @Nullable
+            final var wasDirectory = directories.put(entryPath, entry.isDirectory());
+            if (wasDirectory != null && !(wasDirectory && entry.isDirectory())) {
+                throw new MaliciousArchiveException(
+                        entry.getName() + " occurs more than once in " + arPath.toAbsolutePath()
+                );
+            }
+        }
+
+        // Every range needs enough memory for the decoders of a common archive
+        final var parts = Math.min(
+                this.settings.getParallelism(), SEVEN_Z_MEMORY_LIMIT / SEVEN_Z_RANGE_MEMORY_LIMIT
+        );
+        final var bounds = partition(entries, folders, Math.max(parts, 1));
+
+        try {
+            return this.unsevenzipRanges(arPath, targetDir, bounds, token);
+        } catch (final MemoryLimitException ex) {
+            if (bounds.length == 2) {
+                throw ex;
+            }
+
+            // A decoder needed more than the share of its range, but may fit the whole limit
+            logger.debug("Unpacking {} sequentially: {}", arPath, ex.getMessage());
+            return this.unsevenzipRanges(arPath, targetDir, new int[] {0, entries.size()}, token);
+        }
+    }
+
+    /**
+     * Unpacks the entries of a 7z archive in consecutive ranges, in parallel if there are
+     * several. The ranges share the memory limit of the decoders.
+     *
+     * @param arPath the path to the 7z file
+     * @param targetDir the directory where to unpack into
+     * @param bounds the index of the first entry of every range, followed by the number of
+     *               entries
+     * @param token the token that aborts unpacking
+     *
+     * @return the files (not directories) that were unpacked
+     *
+     * @throws IOException if the file couldn't be unpacked
+     */
+    private UnpackResult unsevenzipRanges(
+            final Path arPath,
+            final Path targetDir,
+            final int[] bounds,
+            final CancellationToken token
+    ) throws IOException {
+        final var ranges = bounds.length - 1;
+
+        // Every range collects its own results, so they can be combined in archive order
+        final var files = new ArrayList<List<Path>>(ranges);
+        final var digests = new ArrayList<Map<Path, Map<String, String>>>(ranges);
+        for (var i = 0; i < ranges; i++) {
+            files.add(new ArrayList<>());
+            digests.add(new LinkedHashMap<>());
+        }
+
+        try {
+            if (ranges == 1) {
+                this.unsevenzipRange(
+                        arPath, targetDir, bounds[0], bounds[1], SEVEN_Z_MEMORY_LIMIT,
+                        files.get(0), digests.get(0), token
+                );
+            } else {
+                this.unsevenzipInParallel(arPath, targetDir, bounds, files, digests, token);
+            }
+        } catch (final IOException | RuntimeException ex) {
+            // Clean up in case of an error.
+            // NB: this should NOT happen in a finally block
+            for (final var rangeFiles : files) {
+                this.cleanFiles(rangeFiles);
+            }
+            throw ex;
+        }
+
+        final var allFiles = new ArrayList<Path>();
+        final var allDigests = new LinkedHashMap<Path, Map<String, String>>();
+        for (var i = 0; i < ranges; i++) {
+            allFiles.addAll(files.get(i));
+            allDigests.putAll(digests.get(i));
+        }
+        return new UnpackResult(allFiles, new Manifest(allDigests));
+    }
+
+    /**
+     * Unpacks ranges of the entries of a 7z archive in parallel, each with its own reader.
+     *
+     * The ranges run on the threads of this unpacker, which are shared by all its unpacking
+     * operations, and every range gets an equal share of the memory limit of the decoders. If one
+     * range fails, the others are cancelled. This method only returns once no range is being
+     * unpacked anymore, so the caller can safely clean up.
+     *
+     * @param arPath the path to the 7z file
+     * @param targetDir the directory where to unpack into
+     * @param bounds the index of the first entry of every range, followed by the number of
+     *               entries
+     * @param files the list to add the unpacked files to, per range
+     * @param digests the map to add the digests of the unpacked files to, per range
+     * @param token the token that aborts unpacking
+     *
+     * @throws IOException if a range couldn't be unpacked
+     */
+    private void unsevenzipInParallel(
+            final Path arPath,
+            final Path targetDir,
+            final int[] bounds,
+            final List<List<Path>> files,
+            final List<Map<Path, Map<String, String>>> digests,
+            final CancellationToken token
+    ) throws IOException {
+        final var ranges = bounds.length - 1;
+        final var memoryLimitInKb = SEVEN_Z_MEMORY_LIMIT / ranges;
+        final var rangeToken = token.link();
+        final var failure = new AtomicReference<Throwable>();
+
+        final var executor = this.rangeExecutor();
+        final var futures = new ArrayList<Future<?>>(ranges);
+        try {
+            for (var i = 0; i < ranges; i++) {
+                final var range = i;
+                futures.add(executor.submit(() -> {
+                    try {
+                        this.unsevenzipRange(
+                                arPath, targetDir, bounds[range], bounds[range + 1],
+                                memoryLimitInKb, files.get(range), digests.get(range), rangeToken
+                        );
+                    } catch (final IOException | RuntimeException | Error ex) {
+                        // The first failure is the cause; the others are cancellations
+                        failure.compareAndSet(null, ex);
+                        rangeToken.cancel();
+                    }
+                }));
+            }
+        } catch (final RejectedExecutionException ex) {
+            failure.compareAndSet(null, ex);
+            rangeToken.cancel();
+        }
+
+        var interrupted = false;
+        for (final var future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (final InterruptedException ex) {
+                    // Keep waiting, so no range is still writing during clean up
+                    interrupted = true;
+                    rangeToken.cancel();
+                } catch (final ExecutionException ex) {
+                    failure.compareAndSet(null, ex.getCause());
+                    rangeToken.cancel();
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(
+                    null, new InterruptedIOException("Interrupted while unpacking " + arPath)
+            );
+        }
+
+        @Nullable
+        final var ex = failure.get();
+        if (ex instanceof IOException) {
+            throw (IOException) ex;
+        }
+        if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        }
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        if (ex != null) {
+            throw new IOException("Unable to unpack " + arPath, ex);
+        }
+    }
+
+    /**
+     * Returns the threads that unpack the ranges of 7z archives, creating them on first use.
+     *
+     * There are as many threads as the configured parallelism. They are daemon threads that stop
+     * when idle for a while, so an unpacker that is no longer used does not keep them around.
+     *
+     * @return the executor
+     */
+    private synchronized ExecutorService rangeExecutor() {
+        if (this.rangeExecutor == null) {
+            final var threads = Math.max(this.settings.getParallelism(), 1);
+            final var executor = new ThreadPoolExecutor(
+                    threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        final var thread = new Thread(runnable, "unpacker-7z-range");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+            );
+            executor.allowCoreThreadTimeOut(true);
+            this.rangeExecutor = executor;
+        }
+        return this.rangeExecutor;
+    }
+
+    /**
+     * Unpacks a range of the entries of a 7z archive.
+     *
+     * The entries before the range are passed without reading their contents. Ranges start
+     * where a solid block does, so none of the passed entries has to be decoded.
+     *
+     * @param arPath the path to the 7z file
+     * @param targetDir the directory where to unpack into
+     * @param from the index of the first entry in the range
+     * @param to the index of the first entry after the range
+     * @param memoryLimitInKb the memory limit of the decoders of the range, in KiB
+     * @param files the list to add the unpacked files to
+     * @param digests the map to add the digests of the unpacked files to
+     * @param token the token that aborts unpacking
+     *
+     * @throws IOException if the range couldn't be unpacked
+     */
+    private void unsevenzipRange(
+            final Path arPath,
+            final Path targetDir,
+            final int from,
+            final int to,
+            final int memoryLimitInKb,
+            final List<Path> files,
+            final Map<Path, Map<String, String>> digests,
+            final CancellationToken token
+    ) throws IOException {
+        // The reader verifies the CRC-32 of every entry itself
+        final var writer = new EntryWriter(this.settings, false, token);
+
+        try (var sevenZ = openSevenZ(arPath, memoryLimitInKb, token)) {
+            final var in = new SevenZEntryInputStream(sevenZ);
+
+            // The entry whose parent directory was created last, to skip creating it again
+            @Nullable
+            String parentCreatedFor = null;
+
+            var index = 0;
+            SevenZArchiveEntry entry;
+            while (index < to && (entry = sevenZ.getNextEntry()) != null) {
+                if (index++ < from) {
+                    continue;
+                }
+
+                token.throwIfCancelled();
+
+                // Anti-items mark deletions in incremental backups; there is nothing to delete
+                if (entry.isAntiItem()) {
+                    continue;
+                }
+
+                // The names were checked before unpacking started
+                final var name = entry.getName();
+                final var entryPath = targetDir.resolve(name);
+
+                if (entry.isDirectory()) {
+                    this.createDirectory(entryPath);
+                    continue;
+                }
+
+                if (!hasSameParent(name, parentCreatedFor)) {
+                    this.createDirectory(entryPath.getParent());
+                    parentCreatedFor = name;
+                }
+
+                files.add(entryPath);
+                writer.write(in, entryPath, entry.getSize());
+                this.addDigests(digests, entryPath, writer);
+            }
+
+            writer.finish();
+        }
+    }
+
+    /**
+     * Splits the entries of a 7z archive into consecutive ranges of about equal size.
+     *
+     * Ranges only start where a solid block does, since a range that starts halfway through one
+     * would have to decode the part before it again. Every entry also counts as a small fixed
+     * size, so ranges of many small files are split as well.
+     *
+     * @param entries the entries
+     * @param folders the index of the solid block of every entry, or -1 for entries without
+     *                contents; {@code null} if unknown, which makes a single range
+     * @param parts the maximum number of ranges
+     *
+     * @return the index of the first entry of every non-empty range, followed by the number of
+     *         entries
+     */
+    @Contract(pure = true)
+    private static int[] partition(
+            final List<SevenZArchiveEntry> entries, final @Nullable int[] folders, final int parts
+    ) {
+        if (folders == null) {
+            return new int[] {0, entries.size()};
+        }
+
+        var total = 0L;
+        for (final var entry : entries) {
+            total += weight(entry);
+        }
+
+        final var bounds = new int[Math.min(parts, Math.max(entries.size(), 1)) + 1];
+        var count = 1;
+        var cumulative = 0L;
+        var folder = -1;
+        for (var i = 0; i < entries.size() - 1 && count < bounds.length - 1; i++) {
+            cumulative += weight(entries.get(i));
+            if (folders[i] >= 0) {
+                folder = folders[i];
+            }
+
+            final var startsFolder = folders[i + 1] >= 0 && folders[i + 1] != folder;
+            if (startsFolder && cumulative * (bounds.length - 1) >= total * count) {
+                bounds[count++] = i + 1;
+            }
+        }
+
+        bounds[count] = entries.size();
+        return Arrays.copyOf(bounds, count + 1);
+    }
+
+    /**
+     * Returns the index of the solid block (folder) of every entry of a 7z archive.
+     *
+     * Commons Compress keeps this mapping to itself, so it is read from the parsed archive
+     * header. If that fails, as it may with other versions of the library, the archive is not
+     * split.
+     *
+     * @param sevenZ the archive
+     * @param count the number of entries
+     *
+     * @return the folder of every entry, or -1 for entries without contents; {@code null} if
+     *         unknown
+     */
+    @Nullable
+    private static int[] folderIndices(final SevenZFile sevenZ, final int count) {
+        try {
+            final var archive = declaredField(sevenZ, "archive");
+            final var streamMap = declaredField(archive, "streamMap");
+            final var folders = declaredField(streamMap, "fileFolderIndex");
+            if (folders instanceof int[] && ((int[]) folders).length == count) {
+                return ((int[]) folders).clone();
+            }
+        } catch (final ReflectiveOperationException | RuntimeException ex) {
+            logger.debug("Unable to find the solid blocks of 7z entries", ex);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of a field of an object, whatever its access modifier.
+     *
+     * @param object the object
+     * @param name the name of the field, which the class of the object declares itself
+     *
+     * @return the value
+     *
+     * @throws ReflectiveOperationException if the field can not be found or read
+     */
+    @Nullable
+    private static Object declaredField(
+            final @Nullable Object object, final String name
+    ) throws ReflectiveOperationException {
+        if (object == null) {
+            return null;
+        }
+        final var field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(object);
+    }
+
+    /**
+     * Returns the weight of a 7z entry for splitting an archive into ranges.
+     *
+     * @param entry the entry
+     *
+     * @return the weight
+     */
+    @Contract(pure = true)
+    private static long weight(final SevenZArchiveEntry entry) {
+        return entry.getSize() + SEVEN_Z_ENTRY_WEIGHT;
+    }
+
+    /**
+     * Opens a 7z archive.
+     *
+     * The reader decodes whatever precedes an entry in its folder before the entry itself, so
+     * the token is checked on every read from the archive rather than only between entries.
+     *
+     * Unnamed entries, as in 7z archives made from a single compressed stream, are named after
+     * the archive. Decoders must not need more memory than the given limit, since the archive
+     * header decides how much they take.
+     *
+     * @param arPath the path to the 7z file
+     * @param memoryLimitInKb the memory limit of the decoders, in KiB
+     * @param token the token that aborts reading
+     *
+     * @return the reader
+     *
+     * @throws IOException if the header of the archive couldn't be read
+     */
+    private static SevenZFile openSevenZ(
+            final Path arPath, final int memoryLimitInKb, final CancellationToken token
+    ) throws IOException {
+        final var options = SevenZFileOptions.builder()
+                .withUseDefaultNameForUnnamedEntries(true)
+                .withMaxMemoryLimitInKb(memoryLimitInKb)
+                .build();
+
+        final var channel = new CancellableChannel(Files.newByteChannel(arPath), token);
+        try {
+            return new SevenZFile(channel, arPath.toAbsolutePath().toString(), options);
+        } catch (final IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Adds the digests of the most recently written entry to a manifest under construction.
+     *
+     * @param digests the digests per file so far
+     * @param file the file that was written
+     * @param writer the writer that wrote the file
+     */
+    private void addDigests(
+            final Map<Path, Map<String, String>> digests,
+            final Path file,
+            final EntryWriter writer
+    ) {
+        final var fileDigests = writer.finishDigests();
+        if (!fileDigests.isEmpty()) {
+            digests.put(file, fileDigests);
+        }
+    }
+
+    /**
+     * Attempts to delete all files in the given collection.
+     *
+     * @param files the files to delete
+     */
+    private void cleanFiles(final Collection<Path> files) {
+        for (final var path : files) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (final Exception dex) {
+                logger.warn("Unable to clean file {}", path.toAbsolutePath(), dex);
+            }
+        }
+    }
+
+    /**
+     * Checks if an entry name resolves to a path within the submission's target directory. If it
+     * does not, a {@link MaliciousArchiveException} is thrown.
+     *
+     * @param name the entry name
+     * @param isDirectory whether the entry is a directory, which may name the target directory
+     * @param targetDir the submission's base dir the entry should be within
+     *
+     * @throws MaliciousArchiveException if the entry is outside the target directory
+     */
+    private void assertWithinTargetDir(
+            final String name, final boolean isDirectory, final Path targetDir
+    ) {
+        if (!isWithinTargetDir(name, isDirectory)) {
+            final var problem = isWithinTargetDir(name, true)
+                    ? " would replace the extraction path "
+                    : " is outside the extraction path ";
+            throw new MaliciousArchiveException(name + problem + targetDir.toAbsolutePath());
+        }
+    }
+
+    /**
+     * Checks if an entry name stays within the directory it is resolved against.
+     *
+     * The name is walked component by component, so no paths have to be built: it must not be
+     * absolute, and no {@code ..} component may climb above the level where the name started.
+     * Only directories may name that level itself, as in {@code .} or {@code sub/..}; a file
+     * there would replace the directory.
+     *
+     * @param name the entry name
+     * @param isDirectory whether the entry is a directory
+     *
+     * @return whether the name stays within the directory
+     */
+    @Contract(pure = true)
+    private static boolean isWithinTargetDir(final String name, final boolean isDirectory) {
+        final var length = name.length();
+        if (length > 0 && isSeparator(name.charAt(0))) {
+            return false;
+        }
+        if (File.separatorChar == '\\' && length > 1 && name.charAt(1) == ':') {
+            // A drive letter
+            return false;
+        }
+
+        var depth = 0;
+        var start = 0;
+        while (start < length) {
+            var end = start;
+            while (end < length && !isSeparator(name.charAt(end))) {
+                end++;
+            }
+
+            final var componentLength = end - start;
+            if (componentLength == 2
+                    && name.charAt(start) == '.' && name.charAt(start + 1) == '.') {
+                depth--;
+                if (depth < 0) {
+                    return false;
+                }
+            } else if (componentLength > 1 || componentLength == 1 && name.charAt(start) != '.') {
+                depth++;
+            }
+
+            start = end + 1;
+        }
+
+        return isDirectory || depth > 0;
+    }
+
+    /**
+     * Checks if two entry names have the same parent, textually.
+     *
+     * @param name the entry name
+     * @param previous the other entry name, if any
+     *
+     * @return whether both names have the same parent
+     */
+    @Contract(value = "_, null -> false", pure = true)
+    private static boolean hasSameParent(final String name, final @Nullable String previous) {
+        if (previous == null) {
+            return false;
+        }
+
+        final var parentLength = parentLength(name);
+        return parentLength == parentLength(previous)
+                && name.regionMatches(0, previous, 0, parentLength);
+    }
+
+    /**
+     * Returns the length of the parent part of an entry name.
+     *
+     * @param name the entry name
+     *
+     * @return the index of the last separator, or -1 if there is none
+     */
+    @Contract(pure = true)
+    private static int parentLength(final String name) {
+        return Math.max(name.lastIndexOf('/'), name.lastIndexOf(File.separatorChar));
+    }
+
+    /**
+     * Checks if a character separates entry name components.
+     *
+     * @param c the character
+     *
+     * @return whether the character is a separator
+     */
+    @Contract(pure = true)
+    private static boolean isSeparator(final char c) {
+        return c == '/' || c == File.separatorChar;
+    }
+
+    /**
+     * Checks if the real path of a directory, with all symbolic links resolved, is within the
+     * real path of the target directory. If it is not, a {@link MaliciousArchiveException} is
+     * thrown.
+     *
+     * @param dir the directory
+     * @param realTargetDir the real path of the target directory
+     *
+     * @throws IOException if the real path can not be determined
+     * @throws MaliciousArchiveException if the directory is outside the target directory
+     */
+    private void assertRealPathWithinTargetDir(
+            final Path dir, final Path realTargetDir
+    ) throws IOException {
+        final var realDir = dir.toRealPath();
+        if (!realDir.startsWith(realTargetDir)) {
+            throw new MaliciousArchiveException(
+                    dir.toAbsolutePath() + " resolves to " + realDir
+                            + ", which is outside the extraction path " + realTargetDir
+            );
+        }
+    }
+
+    /**
+     * Checks if a symbolic link points to a path within the target directory. If it does not, a
+     * {@link MaliciousArchiveException} is thrown.
+     *
+     * The link is resolved component by component, following symbolic links that already exist,
+     * since a lexical {@code ..} after a symbolic link does not go where it seems to go.
+     *
+     * @param linkDir the directory the link is created in
+     * @param linkText the contents of the link
+     * @param realTargetDir the real path of the target directory
+     *
+     * @throws IOException if an existing link along the way can not be resolved
+     * @throws MaliciousArchiveException if the link points outside the target directory
+     */
+    private void assertLinkWithinTargetDir(
+            final Path linkDir, final Path linkText, final Path realTargetDir
+    ) throws IOException {
+        if (linkText.isAbsolute()) {
+            throw new MaliciousArchiveException(
+                    "Symbolic link to " + linkText + " in " + linkDir.toAbsolutePath()
+                            + " is absolute"
+            );
+        }
+
+        @Nullable
+        var current = linkDir.toRealPath();
+        for (final var component : linkText) {
+            final var name = component.toString();
+            if (name.equals("..")) {
+                current = current.getParent();
+            } else if (!name.equals(".")) {
+                current = current.resolve(component);
+                if (Files.isSymbolicLink(current)) {
+                    current = current.toRealPath();
+                }
+            }
+
+            if (current == null || !current.startsWith(realTargetDir)) {
+                throw new MaliciousArchiveException(
+                        "Symbolic link to " + linkText + " in " + linkDir.toAbsolutePath()
+                                + " points outside the extraction path " + realTargetDir
+                );
+            }
+        }
+    }
+
+    /**
+     * Creates a hard link to a previously unpacked file.
+     *
+     * If the file system does not support hard links, the file is copied instead.
+     *
+     * @param link the path of the link to create
+     * @param existing the previously unpacked file
+     *
+     * @throws IOException if the link couldn't be created
+     */
+    private void createHardLink(final Path link, final Path existing) throws IOException {
+        if (!Files.isRegularFile(existing, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException(
+                    "Hard link target " + existing.toAbsolutePath() + " is not a regular file"
+            );
+        }
+
+        EntryWriter.removeExisting(link);
+        try {
+            Files.createLink(link, existing);
+        } catch (final UnsupportedOperationException | FileSystemException ex) {
+            logger.debug("Unable to create hard link {}, copying instead", link, ex);
+            Files.copy(existing, link, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Keeps track of the total size of the submission, checking it it remains within configured
+     * limits.
+     *
+     * @param totalSize the total size before adding the entry
+     * @param entry the entry to be added
+     *
+     * @return the new total size
+     */
+    private long trackSize(final long totalSize, final ArchiveEntry entry) {
+        return this.trackSize(totalSize, logicalSize(entry));
+    }
+
+    /**
+     * Keeps track of the total size of the submission, checking it it remains within configured
+     * limits.
+     *
+     * @param totalSize the total size before adding the entry
+     * @param size the size of the entry to be added
+     *
+     * @return the new total size
+     */
+    private long trackSize(final long totalSize, final long size) {
+        final var newSize = totalSize + size;
+        final var maxSize = this.settings.getMaxUnpackedArchiveSize();
+
+        if (newSize >= maxSize) {
+            throw new MaliciousArchiveException(
+                    "Archive is too big: limit is " + maxSize
+                            + "; archive size so far is " + newSize
+            );
+        }
+
+        return newSize;
+    }
+
+    /**
+     * Returns the logical size of an entry once unpacked.
+     *
+     * For sparse tar entries this includes the holes, which are not stored in the archive.
+     *
+     * @param entry the entry
+     *
+     * @return the size in bytes
+     */
+    private static long logicalSize(final ArchiveEntry entry) {
+        if (isSparse(entry)) {
+            return ((TarArchiveEntry) entry).getRealSize();
+        }
+
+        return entry.getSize();
+    }
+
+    /**
+     * Checks whether an entry is a sparse tar entry.
+     *
+     * @param entry the entry
+     *
+     * @return whether the entry is a sparse tar entry
+     */
+    private static boolean isSparse(final ArchiveEntry entry) {
+        return entry instanceof TarArchiveEntry && ((TarArchiveEntry) entry).isSparse();
+    }
+
+    /**
+     * Copies a single file to a new directory.
+     *
+     * @param path the path to the file
+     * @param targetDir the directory to copy to
+     * @param token the token that aborts copying
+     *
+     * @return the path of the new file
+     *
+     * @throws IOException if the file couldn't be copied
+     */
+    private UnpackResult copySingleFile(
+            final Path path, final Path targetDir, final CancellationToken token
     ) throws IOException {
         logger.debug("Could not determine archive type, treating {} as a regular file", path);
 
         final var newFile = targetDir.resolve(path.getFileName());
-        try (var out = Files.newOutputStream(newFile)) {
-            Files.copy(path, out);
-            return Collections.singleton(newFile);
-        } catch (final IOException ex) {
+        final var writer = new EntryWriter(this.settings, false, token);
+        try (var in = Files.newInputStream(path)) {
+            writer.write(in, newFile, Files.size(path));
+            writer.finish();
+
+            final var digests = new LinkedHashMap<Path, Map<String, String>>();
+            this.addDigests(digests, newFile, writer);
+            return new UnpackResult(Collections.singleton(newFile), new Manifest(digests));
+        } catch (final IOException | RuntimeException ex) {
             // Clean up before rethrowing
             try {
                 Files.deleteIfExists(newFile);
@@ -321,6 +2164,12 @@ public class Unpacker {
     @Contract("null -> fail")
     private void createDirectory(final @Nullable Path dir) {
         assert dir != null : "Refusing to create root";
+
+        // Also covers symbolic links to directories, which createDirectories rejects
+        if (Files.isDirectory(dir)) {
+            return;
+        }
+
         try {
             Files.createDirectories(dir);
         } catch (final IOException ex) {
@@ -329,6 +2178,261 @@ public class Unpacker {
         }
     }
 
+    /**
+     * Counts the bytes read from a stream, including the bytes that are skipped. The tar reader
+     * skips the data of entries it is not asked to read, as well as the padding after every
+     * entry, so without those the count would not reflect the position in the stream.
+     */
+    private static final class SkipCountingInputStream extends CountingInputStream {
+        /**
+         * Creates a new counting stream.
+         *
+         * @param in the stream to count the bytes of
+         */
+        private SkipCountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final var skipped = super.skip(n);
+            this.count(skipped);
+            return skipped;
+        }
+    }
+
+    /**
+     * Checks a cancellation token on every read from a stream, and skips in bounded steps so
+     * that skipping the payload of a large entry checks it as well.
+     */
+    private static final class CancellableInputStream extends FilterInputStream {
+        /**
+         * The token that aborts reading.
+         */
+        private final CancellationToken token;
+
+        /**
+         * Creates a new cancellable stream.
+         *
+         * @param in the stream to read from
+         * @param token the token that aborts reading
+         */
+        @Contract(pure = true)
+        private CancellableInputStream(final InputStream in, final CancellationToken token) {
+            super(in);
+            this.token = token;
+        }
+
+        @Override
+        public int read(
+                final byte[] buffer, final int offset, final int length
+        ) throws IOException {
+            this.token.throwIfCancelled();
+            return this.in.read(buffer, offset, length);
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            this.token.throwIfCancelled();
+            return this.in.skip(Math.min(n, SKIP_STEP_SIZE));
+        }
+    }
+
+    /**
+     * Checks a cancellation token on every read from a channel.
+     */
+    private static final class CancellableChannel implements SeekableByteChannel {
+        /**
+         * The channel to read from.
+         */
+        private final SeekableByteChannel channel;
+
+        /**
+         * The token that aborts reading.
+         */
+        private final CancellationToken token;
+
+        /**
+         * Creates a new cancellable channel.
+         *
+         * @param channel the channel to read from
+         * @param token the token that aborts reading
+         */
+        @Contract(pure = true)
+        private CancellableChannel(
+                final SeekableByteChannel channel, final CancellationToken token
+        ) {
+            this.channel = channel;
+            this.token = token;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            this.token.throwIfCancelled();
+            return this.channel.read(dst);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return this.channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(final long newPosition) throws IOException {
+            this.channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return this.channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(final long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Reads the contents of the current entry of a 7z archive.
+     *
+     * Closing the stream does not close the archive.
+     */
+    private static final class SevenZEntryInputStream extends InputStream {
+        /**
+         * The archive.
+         */
+        private final SevenZFile sevenZ;
+
+        /**
+         * Creates a new stream.
+         *
+         * @param sevenZ the archive
+         */
+        @Contract(pure = true)
+        private SevenZEntryInputStream(final SevenZFile sevenZ) {
+            this.sevenZ = sevenZ;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return this.sevenZ.read();
+        }
+
+        @Override
+        public int read(
+                final byte[] buffer, final int offset, final int length
+        ) throws IOException {
+            return this.sevenZ.read(buffer, offset, length);
+        }
+    }
+
+    /**
+     * Accumulates archive entries into an {@link ArchiveSummary}.
+     */
+    private static final class SummaryCollector {
+        /**
+         * The number of files seen so far.
+         */
+        private long fileCount = 0;
+
+        /**
+         * The number of directories seen so far.
+         */
+        private long directoryCount = 0;
+
+        /**
+         * The sum of the sizes of the files seen so far.
+         */
+        private long totalSize = 0;
+
+        /**
+         * The number of files seen so far per file type.
+         */
+        private final Map<String, Long> fileTypes = new HashMap<>();
+
+        /**
+         * Adds an archive entry to the summary.
+         *
+         * @param entry the entry
+         */
+        private void add(final ArchiveEntry entry) {
+            if (entry.isDirectory()) {
+                this.directoryCount++;
+                return;
+            }
+
+            this.addFile(entry.getName(), Math.max(logicalSize(entry), 0));
+        }
+
+        /**
+         * Adds a file to the summary.
+         *
+         * @param name the name of the file
+         * @param size the size of the file
+         */
+        private void addFile(final String name, final long size) {
+            this.fileCount++;
+            this.totalSize += size;
+            this.fileTypes.merge(fileType(name), 1L, Long::sum);
+        }
+
+        /**
+         * Builds the summary.
+         *
+         * @param format the name of the archive format
+         * @param archiveSize the size of the archive file
+         *
+         * @return the summary
+         */
+        @Contract("_, _ -> new")
+        private ArchiveSummary build(final String format, final long archiveSize) {
+            return new ArchiveSummary(
+                    format,
+                    archiveSize,
+                    this.fileCount,
+                    this.directoryCount,
+                    this.totalSize,
+                    this.fileTypes
+            );
+        }
+
+        /**
+         * Determines the file type of a file from its name.
+         *
+         * @param name the name of the file, possibly including directories
+         *
+         * @return the lowercase extension without the dot, or the empty string if there is none
+         */
+        private static String fileType(final String name) {
+            final var slash = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+            final var dot = name.lastIndexOf('.');
+
+            // Leading dots mark hidden files rather than extensions
+            if (dot <= slash + 1) {
+                return "";
+            }
+
+            return name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        }
+    }
+
     /**
      * A tar decompression stack.
      */
@@ -343,35 +2447,100 @@ public class Unpacker {
          */
         private final Pattern extensionMatcher;
 
+        /**
+         * A function recognizing the magic bytes this decompressor supports.
+         */
+        private final SignatureMatcher signatureMatcher;
+
         /**
          * A function mapping an input stream to the corresponding decompression stack.
          */
         private final DecompressionStackBuilder streamTransformer;
 
         /**
-         * Creates a new tar decompressor.
+         * A function opening the decompressed stream at a given position, if the stack can seek.
+         */
+        @Nullable
+        private final SeekableStackBuilder seekableTransformer;
+
+        /**
+         * Creates a new tar decompressor for a stack that can not seek.
          *
          * @param name the name of the stack
          * @param extensionMatcher the regular expression matching valid extensions
+         * @param signatureMatcher the function recognizing valid magic bytes
          * @param streamTransformer the stream stack transformer
          */
         @Contract(pure = true)
         private TarDecompressor(
                 final String name,
                 final Pattern extensionMatcher,
+                final SignatureMatcher signatureMatcher,
                 final DecompressionStackBuilder streamTransformer
+        ) {
+            this(name, extensionMatcher, signatureMatcher, streamTransformer, null);
+        }
+
+        /**
+         * Creates a new tar decompressor.
+         *
+         * @param name the name of the stack
+         * @param extensionMatcher the regular expression matching valid extensions
+         * @param signatureMatcher the function recognizing valid magic bytes
+         * @param streamTransformer the stream stack transformer
+         * @param seekableTransformer the function opening the stack at a position, if any
+         */
+        @Contract(pure = true)
+        private TarDecompressor(
+                final String name,
+                final Pattern extensionMatcher,
+                final SignatureMatcher signatureMatcher,
+                final DecompressionStackBuilder streamTransformer,
+                final @Nullable SeekableStackBuilder seekableTransformer
         ) {
             this.name = name;
             this.extensionMatcher = extensionMatcher;
+            this.signatureMatcher = signatureMatcher;
             this.streamTransformer = streamTransformer;
+            this.seekableTransformer = seekableTransformer;
         }
     }
 
     /**
-     * A function transforming an input stream to an archive input stream.
+     * A function transforming a compressed input stream to a stream of the decompressed tar
+     * archive.
      */
     @FunctionalInterface
     private interface DecompressionStackBuilder {
-        ArchiveInputStream apply(InputStream inputStream) throws IOException;
+        InputStream apply(
+                InputStream inputStream, DecoderPool pool, int memoryLimitInKb
+        ) throws IOException;
+    }
+
+    /**
+     * A function consuming the contents of an archive entry.
+     *
+     * @param <T> the type of the result
+     */
+    @FunctionalInterface
+    private interface EntryReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+
+    /**
+     * A function opening the decompressed tar stream of an archive at a given position, which is
+     * how resumed unpacking skips the entries that were completed before.
+     */
+    @FunctionalInterface
+    private interface SeekableStackBuilder {
+        InputStream open(Path arPath, long offset, DecoderPool pool) throws IOException;
+    }
+
+    /**
+     * A function checking whether the first bytes of a file match a format's magic bytes.
+     */
+    @FunctionalInterface
+    private interface SignatureMatcher {
+        boolean matches(byte[] signature, int length);
     }
 }
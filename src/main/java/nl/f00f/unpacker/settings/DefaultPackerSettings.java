@@ -0,0 +1,36 @@
+package nl.f00f.unpacker.settings;
+
+/**
+ * Sensible defaults for packer settings.
+ */
+public final class DefaultPackerSettings implements PackerSettings {
+    /**
+     * One kilobyte, in bytes.
+     */
+    private static final int KILOBYTE = 1024;
+
+    /**
+     * One megabyte, in bytes.
+     */
+    private static final int MEGABYTE = 1024 * KILOBYTE;
+
+    /**
+     * Returns the number of compression threads, one per available processor.
+     *
+     * @return the number of available processors
+     */
+    @Override
+    public int getParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns the size of independently compressed gzip blocks, 1 MiB.
+     *
+     * @return the block size
+     */
+    @Override
+    public int getGzipBlockSize() {
+        return MEGABYTE;
+    }
+}
@@ -1,5 +1,7 @@
 package nl.f00f.unpacker.settings;
 
+import java.util.List;
+
 /**
  * Sensible defaults for unpacker settings.
  */
@@ -28,4 +30,85 @@ public final class DefaultUnpackerSettings implements UnpackerSettings {
     public long getMaxUnpackedArchiveSize() {
         return 2 * GIGABYTE;
     }
+
+    /**
+     * Returns the digest algorithms to compute, none by default.
+     *
+     * @return an empty list
+     */
+    @Override
+    public List<String> getDigestAlgorithms() {
+        return List.of();
+    }
+
+    /**
+     * Returns whether symbolic links are allowed, which they are not by default.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean isSymbolicLinksAllowed() {
+        return false;
+    }
+
+    /**
+     * Returns the sync policy, leaving write-back to the operating system by default.
+     *
+     * @return {@link SyncPolicy#NONE}
+     */
+    @Override
+    public SyncPolicy getSyncPolicy() {
+        return SyncPolicy.NONE;
+    }
+
+    /**
+     * Returns the direct I/O threshold; direct I/O is not used by default.
+     *
+     * @return {@link Long#MAX_VALUE}
+     */
+    @Override
+    public long getDirectIoThreshold() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns whether unpacking is resumable; by default, failures roll back all files.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean isResumable() {
+        return false;
+    }
+
+    /**
+     * Returns whether identical files are deduplicated; by default, every file is written.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean isDeduplicating() {
+        return false;
+    }
+
+    /**
+     * Returns the number of threads unpacking a 7z archive; by default, archives are unpacked
+     * on the calling thread only.
+     *
+     * @return {@code 1}
+     */
+    @Override
+    public int getParallelism() {
+        return 1;
+    }
+
+    /**
+     * Returns whether archives are mapped into memory; by default, they are read from disk.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean isMemoryMapped() {
+        return false;
+    }
 }
@@ -0,0 +1,28 @@
+package nl.f00f.unpacker.settings;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * Parameters for the packer.
+ */
+public interface PackerSettings {
+    /**
+     * Returns the number of threads compressing archive contents in parallel.
+     *
+     * @return the number of threads, at least 1
+     */
+    @Contract(pure = true)
+    int getParallelism();
+
+    /**
+     * Returns the size of the blocks that are compressed independently when creating gzipped
+     * archives.
+     *
+     * Every block becomes a separate gzip member, so smaller blocks spread better over the
+     * compression threads at the cost of a slightly worse compression ratio.
+     *
+     * @return the block size in bytes
+     */
+    @Contract(pure = true)
+    int getGzipBlockSize();
+}
@@ -0,0 +1,109 @@
+package nl.f00f.unpacker.settings;
+
+import org.jetbrains.annotations.Contract;
+
+/**
+ * A builder for packer settings.
+ *
+ * This builder is multi-use. Each call to {@link #build()} will return a distinct instance of
+ * a {@link PackerSettings} implementation.
+ */
+@SuppressWarnings({"ReturnOfThis", "customary for the builder pattern"})
+public class PackerSettingsBuilder {
+    /**
+     * The settings object under construction.
+     */
+    private PackerSettingsImpl settings;
+
+    /**
+     * Creates a new packer settings builder.
+     *
+     * The settings object under construction is prepopulated with values from
+     * {@link DefaultPackerSettings}.
+     */
+    public PackerSettingsBuilder() {
+        this.settings = new PackerSettingsImpl();
+        this.fromPackerSettings(new DefaultPackerSettings());
+    }
+
+    /**
+     * Copies the values of another settings object into the object under construction.
+     *
+     * @param packerSettings the settings to copy
+     *
+     * @return the builder
+     */
+    public PackerSettingsBuilder fromPackerSettings(final PackerSettings packerSettings) {
+        return this.withParallelism(packerSettings.getParallelism())
+                .withGzipBlockSize(packerSettings.getGzipBlockSize());
+    }
+
+    /**
+     * Sets the number of compression threads.
+     *
+     * @param parallelism the number of threads
+     *
+     * @return the builder
+     *
+     * @see PackerSettings#getParallelism()
+     */
+    public PackerSettingsBuilder withParallelism(final int parallelism) {
+        this.settings.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets the size of independently compressed gzip blocks.
+     *
+     * @param size the size
+     *
+     * @return the builder
+     *
+     * @see PackerSettings#getGzipBlockSize()
+     */
+    public PackerSettingsBuilder withGzipBlockSize(final int size) {
+        this.settings.gzipBlockSize = size;
+        return this;
+    }
+
+    /**
+     * Builds an instance of packer settings with the configured values.
+     *
+     * Subsequent calls will return distinct instances, though with the same values unless the
+     * builder was modified between builds.
+     *
+     * @return the instance
+     */
+    @Contract(pure = false)
+    public PackerSettings build() {
+        final var oldSettings = this.settings;
+        this.settings = new PackerSettingsImpl();
+        this.fromPackerSettings(oldSettings);
+        return oldSettings;
+    }
+
+    /**
+     * The internal implementation class.
+     */
+    private static final class PackerSettingsImpl implements PackerSettings {
+        /**
+         * The number of compression threads.
+         */
+        private int parallelism;
+
+        /**
+         * The size of independently compressed gzip blocks.
+         */
+        private int gzipBlockSize;
+
+        @Override
+        public int getParallelism() {
+            return this.parallelism;
+        }
+
+        @Override
+        public int getGzipBlockSize() {
+            return this.gzipBlockSize;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package nl.f00f.unpacker.settings;
+
+/**
+ * When unpacked files are flushed to durable storage.
+ */
+public enum SyncPolicy {
+    /**
+     * Files are never explicitly synced; the operating system writes them back eventually.
+     */
+    NONE,
+
+    /**
+     * Every file is synced as soon as it has been written.
+     */
+    PER_FILE,
+
+    /**
+     * All files are synced at once after the whole archive has been unpacked.
+     */
+    BATCHED
+}
@@ -2,8 +2,14 @@ package nl.f00f.unpacker.settings;
 
 import org.jetbrains.annotations.Contract;
 
+import java.util.List;
+
 /**
  * Parameters for the unpacker.
+ *
+ * Apart from the maximum unpacked archive size, every parameter has a default implementation
+ * returning the value of {@link DefaultUnpackerSettings}, so implementations that predate a
+ * parameter keep their behavior.
  */
 public interface UnpackerSettings {
     /**
@@ -18,4 +24,124 @@ public interface UnpackerSettings {
      */
     @Contract(pure = true)
     long getMaxUnpackedArchiveSize();
+
+    /**
+     * Returns the names of the digest algorithms to compute for every unpacked file.
+     *
+     * The digests are computed while the files are written and are returned in the
+     * {@link nl.f00f.unpacker.Manifest} of the unpack result. The checksums {@code CRC32},
+     * {@code CRC32C} and {@code Adler32} are supported, as well as every algorithm supported by
+     * {@link java.security.MessageDigest}, such as {@code SHA-256}.
+     *
+     * @return the algorithm names, empty to compute no digests
+     */
+    @Contract(pure = true)
+    default List<String> getDigestAlgorithms() {
+        return List.of();
+    }
+
+    /**
+     * Returns whether symbolic links in archives are created as symbolic links.
+     *
+     * If disabled, symbolic link entries are skipped. If enabled, links pointing outside the
+     * target directory cause a {@link nl.f00f.unpacker.MaliciousArchiveException}, and every
+     * entry is additionally checked not to be written through a link to outside the target
+     * directory.
+     *
+     * @return whether symbolic links are allowed
+     */
+    @Contract(pure = true)
+    default boolean isSymbolicLinksAllowed() {
+        return false;
+    }
+
+    /**
+     * Returns when unpacked files are flushed to durable storage.
+     *
+     * With {@link SyncPolicy#PER_FILE} and {@link SyncPolicy#BATCHED}, the directories the files
+     * were created in are synced as well once the archive has been unpacked.
+     *
+     * @return the sync policy
+     */
+    @Contract(pure = true)
+    default SyncPolicy getSyncPolicy() {
+        return SyncPolicy.NONE;
+    }
+
+    /**
+     * Returns the size from which files are written with direct I/O, bypassing the page cache.
+     *
+     * Unpacking very large files through the page cache evicts data that other processes still
+     * need. If the file system does not support direct I/O, the files are written normally.
+     *
+     * @return the minimum file size in bytes, or {@link Long#MAX_VALUE} to never use direct I/O
+     */
+    @Contract(pure = true)
+    default long getDirectIoThreshold() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns whether unpacking zip and tar archives can be resumed after a failure.
+     *
+     * In resumable mode, a journal of the entries unpacked so far is kept in the target
+     * directory, and files are left in place when unpacking fails. Unpacking the same archive
+     * into the same directory again skips the entries that the journal shows were completed,
+     * after checking that their files are intact. The journal is removed once the archive has
+     * been unpacked completely. Archives found to be malicious are still rolled back entirely.
+     *
+     * @return whether unpacking is resumable
+     */
+    @Contract(pure = true)
+    default boolean isResumable() {
+        return false;
+    }
+
+    /**
+     * Returns whether identical files in zip archives are unpacked once and hard linked.
+     *
+     * Entries with the same CRC-32 and size are found in the central directory before unpacking.
+     * The first of them is written; the contents of the others are only read to confirm with a
+     * SHA-256 digest that they are identical, after which they become hard links to the written
+     * file. Files that are hard linked share their contents, so changing one changes all of
+     * them.
+     *
+     * @return whether identical files are deduplicated
+     */
+    @Contract(pure = true)
+    default boolean isDeduplicating() {
+        return false;
+    }
+
+    /**
+     * Returns the number of threads unpacking a 7z archive in parallel.
+     *
+     * The entries of the archive are split into consecutive ranges of about equal size, and
+     * every thread decodes one range with its own reader. This pays off for archives made of
+     * many independently compressed blocks; in a solid block, a thread first has to decode the
+     * part of the block that precedes its range.
+     *
+     * @return the number of threads, at least 1
+     */
+    @Contract(pure = true)
+    default int getParallelism() {
+        return 1;
+    }
+
+    /**
+     * Returns whether zip and uncompressed tar archives are mapped into memory to read them.
+     *
+     * Mapped archives are read from the page cache without read calls, and the contents of
+     * stored zip entries and tar entries are written straight from the mapping instead of being
+     * copied through a buffer. Archives larger than 2 GiB are mapped in chunks. The archive must
+     * not be truncated during unpacking, as reading a mapping beyond the end of its file crashes
+     * the reader rather than throwing an exception. Mappings are released by the garbage
+     * collector, so they may outlive the unpacking operation for a while.
+     *
+     * @return whether archives are mapped into memory
+     */
+    @Contract(pure = true)
+    default boolean isMemoryMapped() {
+        return false;
+    }
 }
@@ -2,6 +2,10 @@ package nl.f00f.unpacker.settings;
 
 import org.jetbrains.annotations.Contract;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
 /**
  * A builder for unpacker settings.
  *
@@ -34,7 +38,15 @@ public class UnpackerSettingsBuilder {
      * @return the builder
      */
     public UnpackerSettingsBuilder fromUnpackerSettings(final UnpackerSettings unpackerSettings) {
-        return this.withMaxUnpackedArchiveSize(unpackerSettings.getMaxUnpackedArchiveSize());
+        return this.withMaxUnpackedArchiveSize(unpackerSettings.getMaxUnpackedArchiveSize())
+                .withDigestAlgorithms(unpackerSettings.getDigestAlgorithms())
+                .withSymbolicLinksAllowed(unpackerSettings.isSymbolicLinksAllowed())
+                .withSyncPolicy(unpackerSettings.getSyncPolicy())
+                .withDirectIoThreshold(unpackerSettings.getDirectIoThreshold())
+                .withResumable(unpackerSettings.isResumable())
+                .withDeduplicating(unpackerSettings.isDeduplicating())
+                .withParallelism(unpackerSettings.getParallelism())
+                .withMemoryMapped(unpackerSettings.isMemoryMapped());
     }
 
     /**
@@ -51,6 +63,120 @@ public class UnpackerSettingsBuilder {
         return this;
     }
 
+    /**
+     * Sets the digest algorithms to compute for every unpacked file.
+     *
+     * @param algorithms the algorithm names
+     *
+     * @return the builder
+     *
+     * @see UnpackerSettings#getDigestAlgorithms()
+     */
+    public UnpackerSettingsBuilder withDigestAlgorithms(final Collection<String> algorithms) {
+        this.settings.digestAlgorithms = List.copyOf(algorithms);
+        return this;
+    }
+
+    /**
+     * Sets whether symbolic links are allowed.
+     *
+     * @param allowed whether symbolic links are allowed
+     *
+     * @return the builder
+     *
+     * @see UnpackerSettings#isSymbolicLinksAllowed()
+     */
+    public UnpackerSettingsBuilder withSymbolicLinksAllowed(final boolean allowed) {
+        this.settings.symbolicLinksAllowed = allowed;
+        return this;
+    }
+
+    /**
+     * Sets the sync policy.
+     *
+     * @param policy the sync policy
+     *
+     * @return the builder
+     *
+     * @throws NullPointerException if the policy is {@code null}
+     *
+     * @see UnpackerSettings#getSyncPolicy()
+     */
+    public UnpackerSettingsBuilder withSyncPolicy(final SyncPolicy policy) {
+        this.settings.syncPolicy = Objects.requireNonNull(policy, "policy");
+        return this;
+    }
+
+    /**
+     * Sets the size from which files are written with direct I/O.
+     *
+     * @param threshold the minimum file size
+     *
+     * @return the builder
+     *
+     * @see UnpackerSettings#getDirectIoThreshold()
+     */
+    public UnpackerSettingsBuilder withDirectIoThreshold(final long threshold) {
+        this.settings.directIoThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Sets whether unpacking can be resumed after a failure.
+     *
+     * @param resumable whether unpacking is resumable
+     *
+     * @return the builder
+     *
+     * @see UnpackerSettings#isResumable()
+     */
+    public UnpackerSettingsBuilder withResumable(final boolean resumable) {
+        this.settings.resumable = resumable;
+        return this;
+    }
+
+    /**
+     * Sets whether identical files in zip archives are unpacked once and hard linked.
+     *
+     * @param deduplicating whether identical files are deduplicated
+     *
+     * @return the builder
+     *
+     * @see UnpackerSettings#isDeduplicating()
+     */
+    public UnpackerSettingsBuilder withDeduplicating(final boolean deduplicating) {
+        this.settings.deduplicating = deduplicating;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads unpacking a 7z archive in parallel.
+     *
+     * @param parallelism the number of threads, at least 1
+     *
+     * @return the builder
+     *
+     * @see UnpackerSettings#getParallelism()
+     */
+    public UnpackerSettingsBuilder withParallelism(final int parallelism) {
+        this.settings.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets whether zip and uncompressed tar archives are mapped into memory to read them.
+     *
+     * @param memoryMapped whether archives are mapped into memory
+     *
+     * @return the builder
+     *
+     * @see UnpackerSettings#isMemoryMapped()
+     */
+    public UnpackerSettingsBuilder withMemoryMapped(final boolean memoryMapped) {
+        this.settings.memoryMapped = memoryMapped;
+        return this;
+    }
+
     /**
      * Builds an instance of unpacker settings with the configured values.
      *
@@ -76,9 +202,89 @@ public class UnpackerSettingsBuilder {
          */
         private long maxUnpackedArchiveSize;
 
+        /**
+         * The digest algorithms to compute.
+         */
+        private List<String> digestAlgorithms = List.of();
+
+        /**
+         * Whether symbolic links are allowed.
+         */
+        private boolean symbolicLinksAllowed;
+
+        /**
+         * The sync policy.
+         */
+        private SyncPolicy syncPolicy = SyncPolicy.NONE;
+
+        /**
+         * The size from which files are written with direct I/O.
+         */
+        private long directIoThreshold;
+
+        /**
+         * Whether unpacking is resumable.
+         */
+        private boolean resumable;
+
+        /**
+         * Whether identical files are deduplicated.
+         */
+        private boolean deduplicating;
+
+        /**
+         * The number of threads unpacking a 7z archive.
+         */
+        private int parallelism;
+
+        /**
+         * Whether archives are mapped into memory.
+         */
+        private boolean memoryMapped;
+
         @Override
         public long getMaxUnpackedArchiveSize() {
             return this.maxUnpackedArchiveSize;
         }
+
+        @Override
+        public List<String> getDigestAlgorithms() {
+            return this.digestAlgorithms;
+        }
+
+        @Override
+        public boolean isSymbolicLinksAllowed() {
+            return this.symbolicLinksAllowed;
+        }
+
+        @Override
+        public SyncPolicy getSyncPolicy() {
+            return this.syncPolicy;
+        }
+
+        @Override
+        public long getDirectIoThreshold() {
+            return this.directIoThreshold;
+        }
+
+        @Override
+        public boolean isResumable() {
+            return this.resumable;
+        }
+
+        @Override
+        public boolean isDeduplicating() {
+            return this.deduplicating;
+        }
+
+        @Override
+        public int getParallelism() {
+            return this.parallelism;
+        }
+
+        @Override
+        public boolean isMemoryMapped() {
+            return this.memoryMapped;
+        }
     }
 }
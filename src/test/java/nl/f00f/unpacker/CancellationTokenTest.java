@@ -0,0 +1,71 @@
+package nl.f00f.unpacker;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CancellationTokenTest {
+    @Test
+    public void testNotCancelledInitially() {
+        final var token = CancellationToken.create();
+
+        assertThat(token.isCancelled()).isFalse();
+        token.throwIfCancelled();
+    }
+
+    @Test
+    public void testCancel() {
+        final var token = CancellationToken.create();
+        token.cancel();
+
+        assertThat(token.isCancelled()).isTrue();
+        assertThrows(ExtractionCancelledException.class, token::throwIfCancelled);
+    }
+
+    @Test
+    public void testDeadlinePassed() {
+        final var token = CancellationToken.withTimeout(Duration.ZERO);
+
+        assertThat(token.isCancelled()).isTrue();
+        assertThrows(ExtractionCancelledException.class, token::throwIfCancelled);
+    }
+
+    @Test
+    public void testDeadlineAhead() {
+        final var token = CancellationToken.withTimeout(Duration.ofHours(1));
+
+        assertThat(token.isCancelled()).isFalse();
+    }
+
+    @Test
+    public void testLinkedCancelledByParent() {
+        final var parent = CancellationToken.create();
+        final var linked = parent.link();
+
+        assertThat(linked.isCancelled()).isFalse();
+        parent.cancel();
+
+        assertThat(linked.isCancelled()).isTrue();
+        assertThrows(ExtractionCancelledException.class, linked::throwIfCancelled);
+    }
+
+    @Test
+    public void testLinkedCancelledOnItsOwn() {
+        final var parent = CancellationToken.create();
+        final var linked = parent.link();
+        linked.cancel();
+
+        assertThat(linked.isCancelled()).isTrue();
+        assertThat(parent.isCancelled()).isFalse();
+    }
+
+    @Test
+    public void testNoneNeverCancelled() {
+        CancellationToken.NONE.cancel();
+
+        assertThat(CancellationToken.NONE.isCancelled()).isFalse();
+    }
+}
@@ -0,0 +1,75 @@
+package nl.f00f.unpacker;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.zip.Deflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DecoderPoolTest {
+    private DecoderPool pool;
+
+    @BeforeEach
+    public void before() {
+        this.pool = new DecoderPool(1);
+    }
+
+    @Test
+    public void testInflaterReused() {
+        final var inflater = this.pool.borrowInflater();
+        this.pool.returnInflater(inflater);
+
+        assertThat(this.pool.borrowInflater()).isSameAs(inflater);
+    }
+
+    @Test
+    public void testBorrowedInflatersDistinct() {
+        final var first = this.pool.borrowInflater();
+        final var second = this.pool.borrowInflater();
+
+        assertThat(first).isNotSameAs(second);
+    }
+
+    @Test
+    public void testInflaterEndedWhenPoolFull() {
+        final var first = this.pool.borrowInflater();
+        final var second = this.pool.borrowInflater();
+
+        this.pool.returnInflater(first);
+        this.pool.returnInflater(second);
+
+        // An ended inflater refuses to be used again
+        assertThrows(NullPointerException.class, () -> second.inflate(new byte[1]));
+        assertThat(this.pool.borrowInflater()).isSameAs(first);
+    }
+
+    @Test
+    public void testReturnedInflaterIsReset() throws Exception {
+        final var data = "pooled inflaters".getBytes();
+        final var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        final var compressed = new byte[64];
+        final var compressedLength = deflater.deflate(compressed);
+        deflater.end();
+
+        final var inflater = this.pool.borrowInflater();
+        inflater.setInput(compressed, 0, compressedLength);
+        inflater.inflate(new byte[64]);
+        this.pool.returnInflater(inflater);
+
+        final var reused = this.pool.borrowInflater();
+        reused.setInput(compressed, 0, compressedLength);
+        final var output = new byte[64];
+        final var length = reused.inflate(output);
+
+        assertThat(new String(output, 0, length)).isEqualTo("pooled inflaters");
+    }
+
+    @Test
+    public void testArrayCacheShared() {
+        assertThat(this.pool.getArrayCache()).isSameAs(this.pool.getArrayCache());
+    }
+}
@@ -0,0 +1,11 @@
+package nl.f00f.unpacker;
+
+import net.wukl.exceptionverifier.ExceptionVerifier;
+import org.junit.jupiter.api.Test;
+
+public class ExtractionCancelledExceptionTest {
+    @Test
+    public void verify() {
+        ExceptionVerifier.forClass(ExtractionCancelledException.class).verify();
+    }
+}
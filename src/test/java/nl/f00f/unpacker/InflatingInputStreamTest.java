@@ -0,0 +1,56 @@
+package nl.f00f.unpacker;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class InflatingInputStreamTest {
+    @Test
+    public void testReusedAcrossEntries() throws IOException {
+        final var stream = new InflatingInputStream();
+        final var inflater = new Inflater(true);
+
+        final var first = "first entry ".repeat(1000).getBytes(StandardCharsets.US_ASCII);
+        final var second = "second".getBytes(StandardCharsets.US_ASCII);
+
+        stream.reset(new ByteArrayInputStream(deflate(first)), inflater);
+        assertThat(stream.readAllBytes()).isEqualTo(first);
+
+        inflater.reset();
+        stream.reset(new ByteArrayInputStream(deflate(second)), inflater);
+        assertThat(stream.readAllBytes()).isEqualTo(second);
+    }
+
+    @Test
+    public void testTruncated() {
+        final var stream = new InflatingInputStream();
+        final var data = deflate("truncated".repeat(100).getBytes(StandardCharsets.US_ASCII));
+
+        stream.reset(
+                new ByteArrayInputStream(Arrays.copyOf(data, data.length / 2)),
+                new Inflater(true)
+        );
+
+        assertThrows(EOFException.class, stream::readAllBytes);
+    }
+
+    private static byte[] deflate(final byte[] data) {
+        final var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+
+        final var out = new byte[data.length + 64];
+        final var length = deflater.deflate(out);
+        deflater.end();
+        return Arrays.copyOf(out, length);
+    }
+}
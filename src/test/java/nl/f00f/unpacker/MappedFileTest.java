@@ -0,0 +1,78 @@
+package nl.f00f.unpacker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MappedFileTest {
+    private Path path;
+    private byte[] contents;
+
+    @BeforeEach
+    public void before() throws IOException {
+        this.contents = new byte[10000];
+        for (var i = 0; i < this.contents.length; i++) {
+            this.contents[i] = (byte) (i * 31);
+        }
+
+        this.path = Files.createTempFile("unpacker-test-", ".bin");
+        Files.write(this.path, this.contents);
+    }
+
+    @Test
+    public void testStreamAcrossChunks() throws IOException {
+        final var mapped = MappedFile.map(this.path, 1024);
+
+        try (var in = mapped.inputStream(1000, 9000)) {
+            assertThat(in.read()).isEqualTo(this.contents[1000] & 0xFF);
+            assertThat(in.skip(100)).isEqualTo(100);
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(this.contents, 1101, 9000));
+            assertThat(in.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    public void testSegmentEndsAtChunk() throws IOException {
+        final var mapped = MappedFile.map(this.path, 1024);
+
+        final var segment = mapped.segment(2000, 500);
+
+        assertThat(segment.remaining()).isEqualTo(48);
+        assertThat(segment.get(0)).isEqualTo(this.contents[2000]);
+        assertThrows(EOFException.class, () -> mapped.segment(10000, 1));
+    }
+
+    @Test
+    public void testChannel() throws IOException {
+        final var mapped = MappedFile.map(this.path, 1024);
+
+        try (var channel = mapped.channel()) {
+            final var buffer = ByteBuffer.allocate(3000);
+            channel.position(9000);
+            while (channel.read(buffer) > 0) {
+                // Reads stop at the end of every chunk
+            }
+
+            assertThat(buffer.position()).isEqualTo(1000);
+            assertThat(Arrays.copyOf(buffer.array(), 1000))
+                    .isEqualTo(Arrays.copyOfRange(this.contents, 9000, 10000));
+            assertThrows(NonWritableChannelException.class, () -> channel.write(buffer));
+        }
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        Files.deleteIfExists(this.path);
+    }
+}
@@ -0,0 +1,115 @@
+package nl.f00f.unpacker;
+
+import nl.f00f.unpacker.settings.PackerSettings;
+import nl.f00f.unpacker.settings.UnpackerSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class PackerTest {
+    private Path source;
+    private Path target;
+    private Path archive;
+    private PackerSettings settings;
+    private Packer packer;
+    private Unpacker unpacker;
+
+    @BeforeEach
+    public void before() throws IOException {
+        this.source = Files.createTempDirectory("packer-test-source-");
+        this.target = Files.createTempDirectory("packer-test-target-");
+        this.archive = Files.createTempDirectory("packer-test-archive-");
+
+        this.settings = mock(PackerSettings.class);
+        doReturn(4).when(this.settings).getParallelism();
+        // Small blocks so even the test files are split over several gzip members
+        doReturn(16 * 1024).when(this.settings).getGzipBlockSize();
+        this.packer = new Packer(this.settings);
+
+        final var unpackerSettings = mock(UnpackerSettings.class, CALLS_REAL_METHODS);
+        doReturn(512 * 1024 * 1024L).when(unpackerSettings).getMaxUnpackedArchiveSize();
+        this.unpacker = new Unpacker(unpackerSettings);
+
+        final var random = new Random(42);
+        Files.createDirectories(this.source.resolve("src/nested"));
+        Files.createDirectories(this.source.resolve("empty"));
+        for (var i = 0; i < 8; i++) {
+            final var contents = new byte[random.nextInt(100 * 1024)];
+            for (var j = 0; j < contents.length; j++) {
+                contents[j] = (byte) ('a' + random.nextInt(8));
+            }
+            final var dir = i % 2 == 0 ? "src" : "src/nested";
+            Files.write(this.source.resolve(dir + "/file" + i + ".txt"), contents);
+        }
+    }
+
+    @Test
+    public void testZipRoundTrip() throws IOException {
+        this.assertRoundTrip(this.archive.resolve("bundle.zip"));
+    }
+
+    @Test
+    public void testTarGzRoundTrip() throws IOException {
+        this.assertRoundTrip(this.archive.resolve("bundle.tar.gz"));
+
+        assertThat(this.target.resolve("empty")).isDirectory();
+    }
+
+    @Test
+    public void testTgzRoundTrip() throws IOException {
+        this.assertRoundTrip(this.archive.resolve("bundle.tgz"));
+    }
+
+    @Test
+    public void testTarRoundTrip() throws IOException {
+        this.assertRoundTrip(this.archive.resolve("bundle.tar"));
+    }
+
+    @Test
+    public void testEmptyTarGz() throws IOException {
+        final var empty = Files.createTempDirectory(this.archive, "empty-");
+        final var arPath = this.archive.resolve("empty.tar.gz");
+
+        this.packer.pack(empty, arPath);
+
+        assertThat(this.unpacker.unpack(arPath, this.target)).isEmpty();
+    }
+
+    @Test
+    public void testUnsupportedType() {
+        final var arPath = this.archive.resolve("bundle.rar");
+
+        assertThrows(IllegalArgumentException.class, () -> this.packer.pack(this.source, arPath));
+        assertThat(arPath).doesNotExist();
+    }
+
+    private void assertRoundTrip(final Path arPath) throws IOException {
+        this.packer.pack(this.source, arPath);
+
+        final var files = this.unpacker.unpack(arPath, this.target);
+
+        assertThat(files).hasSize(8);
+        for (final var file : files) {
+            final var original = this.source.resolve(this.target.relativize(file));
+            assertThat(file).hasSameContentAs(original);
+        }
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        FilesystemTestingHelper.removeDirectory(this.source);
+        FilesystemTestingHelper.removeDirectory(this.target);
+        FilesystemTestingHelper.removeDirectory(this.archive);
+    }
+}
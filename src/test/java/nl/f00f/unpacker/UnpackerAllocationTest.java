@@ -0,0 +1,189 @@
+package nl.f00f.unpacker;
+
+import nl.f00f.unpacker.settings.UnpackerSettingsBuilder;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Guards the number of bytes the unpacker allocates per entry, on top of what the archive
+ * library itself allocates to read the entry.
+ */
+public class UnpackerAllocationTest {
+    /**
+     * The number of entries in the small archive.
+     */
+    private static final int SMALL = 500;
+
+    /**
+     * The number of entries in the large archive.
+     */
+    private static final int LARGE = 2500;
+
+    /**
+     * The number of bytes the unpacker may allocate per entry. Opening the output file accounts
+     * for most of it.
+     */
+    private static final long BUDGET = 1024;
+
+    private Path temp;
+    private Unpacker unpacker;
+    private com.sun.management.ThreadMXBean threads;
+    private final byte[] buffer = new byte[8192];
+
+    @BeforeEach
+    public void before() throws IOException {
+        final var bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        this.threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(this.threads.isThreadAllocatedMemorySupported());
+        this.threads.setThreadAllocatedMemoryEnabled(true);
+
+        this.temp = Files.createTempDirectory("unpacker-allocation-test-");
+
+        // Real settings, since every call to a mock allocates
+        this.unpacker = new Unpacker(new UnpackerSettingsBuilder().build());
+    }
+
+    @Test
+    public void testUntarAllocationPerEntry() throws IOException {
+        final var small = this.createTar(SMALL);
+        final var large = this.createTar(LARGE);
+
+        final var read = this.allocatedPerEntry(this::readTar, small, large);
+        final var unpack = this.allocatedPerEntry(this::unpack, small, large);
+
+        assertThat(unpack - read).isLessThan(BUDGET);
+    }
+
+    @Test
+    public void testUnzipAllocationPerEntry() throws IOException {
+        final var small = this.createZip(SMALL);
+        final var large = this.createZip(LARGE);
+
+        final var read = this.allocatedPerEntry(this::readZip, small, large);
+        final var unpack = this.allocatedPerEntry(this::unpack, small, large);
+
+        assertThat(unpack - read).isLessThan(BUDGET);
+    }
+
+    /**
+     * Measures the bytes allocated per entry by an operation on an archive.
+     *
+     * The difference between a small and a large archive cancels out the fixed costs, and the
+     * minimum over several runs filters out warm-up and JIT noise.
+     *
+     * @param operation the operation
+     * @param small the archive with {@link #SMALL} entries
+     * @param large the archive with {@link #LARGE} entries
+     *
+     * @return the bytes allocated per entry
+     *
+     * @throws IOException if the operation fails
+     */
+    private long allocatedPerEntry(
+            final ArchiveOperation operation, final Path small, final Path large
+    ) throws IOException {
+        final var thread = Thread.currentThread().getId();
+
+        var best = Long.MAX_VALUE;
+        for (var i = 0; i < 10; i++) {
+            var before = this.threads.getThreadAllocatedBytes(thread);
+            operation.apply(small);
+            final var smallBytes = this.threads.getThreadAllocatedBytes(thread) - before;
+
+            before = this.threads.getThreadAllocatedBytes(thread);
+            operation.apply(large);
+            final var largeBytes = this.threads.getThreadAllocatedBytes(thread) - before;
+
+            best = Math.min(best, (largeBytes - smallBytes) / (LARGE - SMALL));
+        }
+        return best;
+    }
+
+    private void unpack(final Path archive) throws IOException {
+        final var target = Files.createTempDirectory(this.temp, "out-");
+        this.unpacker.unpack(archive, target);
+    }
+
+    private void readTar(final Path archive) throws IOException {
+        try (var in = new TarArchiveInputStream(
+                new BufferedInputStream(Files.newInputStream(archive))
+        )) {
+            while (in.getNextTarEntry() != null) {
+                while (in.read(this.buffer) != -1) {
+                    // Discard
+                }
+            }
+        }
+    }
+
+    private void readZip(final Path archive) throws IOException {
+        try (var zip = new ZipFile(archive.toFile())) {
+            final var entries = zip.getEntries();
+            while (entries.hasMoreElements()) {
+                try (var in = zip.getRawInputStream(entries.nextElement())) {
+                    while (in.read(this.buffer) != -1) {
+                        // Discard
+                    }
+                }
+            }
+        }
+    }
+
+    private Path createTar(final int entries) throws IOException {
+        final var archive = Files.createTempFile(this.temp, "archive-", ".tar");
+        try (var out = new TarArchiveOutputStream(Files.newOutputStream(archive))) {
+            for (var i = 0; i < entries; i++) {
+                final var entry = new TarArchiveEntry(entryName(i));
+                entry.setSize(16);
+                out.putArchiveEntry(entry);
+                out.write(new byte[16]);
+                out.closeArchiveEntry();
+            }
+        }
+        return archive;
+    }
+
+    private Path createZip(final int entries) throws IOException {
+        final var archive = Files.createTempFile(this.temp, "archive-", ".zip");
+        try (var out = new ZipArchiveOutputStream(archive.toFile())) {
+            for (var i = 0; i < entries; i++) {
+                out.putArchiveEntry(new ZipArchiveEntry(entryName(i)));
+                out.write(new byte[16]);
+                out.closeArchiveEntry();
+            }
+        }
+        return archive;
+    }
+
+    private static String entryName(final int index) {
+        return "dir" + index / 100 + "/file-" + index + ".txt";
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        if (this.temp != null) {
+            FilesystemTestingHelper.removeDirectory(this.temp);
+        }
+    }
+
+    private interface ArchiveOperation {
+        void apply(Path archive) throws IOException;
+    }
+}
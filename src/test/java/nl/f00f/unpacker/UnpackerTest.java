@@ -1,19 +1,41 @@
 package nl.f00f.unpacker;
 
+import nl.f00f.unpacker.settings.SyncPolicy;
 import nl.f00f.unpacker.settings.UnpackerSettings;
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
+import org.apache.commons.compress.archivers.sevenz.SevenZMethod;
+import org.apache.commons.compress.archivers.sevenz.SevenZOutputFile;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 
@@ -27,7 +49,8 @@ public class UnpackerTest {
     public void before() throws IOException {
         this.temp = Files.createTempDirectory("unpacker-test-");
 
-        this.settings = mock(UnpackerSettings.class);
+        // Settings without a stub keep their default
+        this.settings = mock(UnpackerSettings.class, CALLS_REAL_METHODS);
 
         this.unpacker = new Unpacker(this.settings);
 
@@ -138,6 +161,64 @@ public class UnpackerTest {
         );
     }
 
+    @Test
+    public void testDotDotTar() throws IOException {
+        this.copyOut("dotdot", "tar");
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+        assertThat(this.temp.resolveSibling("unpacker-escape")).doesNotExist();
+        assertThat(this.regularFilesInTemp()).isEmpty();
+    }
+
+    @Test
+    public void testDotDotZip() throws IOException {
+        this.copyOut("dotdot", "zip");
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+        assertThat(this.temp.resolveSibling("unpacker-escape")).doesNotExist();
+        assertThat(this.regularFilesInTemp()).isEmpty();
+    }
+
+    @Test
+    public void testEmptyNameZip() throws IOException {
+        this.path = Files.createTempFile("unpacker-test-", "-empty-name.zip");
+        try (var out = new ZipArchiveOutputStream(this.path.toFile())) {
+            out.putArchiveEntry(new ZipArchiveEntry(""));
+            out.write(new byte[] { 42 });
+            out.closeArchiveEntry();
+        }
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+        assertThat(this.temp).isDirectory();
+    }
+
+    @Test
+    public void testFileNamedDotTar() throws IOException {
+        this.createTarWithFile(".");
+        Files.writeString(this.temp.resolve("existing.txt"), "existing\n");
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+        assertThat(this.temp.resolve("existing.txt")).hasContent("existing\n");
+    }
+
+    @Test
+    public void testFileNamedParentOfDirectoryTar() throws IOException {
+        this.createTarWithFile("a/..");
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+        assertThat(this.temp).isDirectory();
+    }
+
     @Test
     public void testNotAnArchive() throws IOException {
         this.copyOut("bloop", "xpf");
@@ -148,6 +229,962 @@ public class UnpackerTest {
         assertThat(files).allMatch(n -> n.toString().endsWith("xpf"));
     }
 
+    @Test
+    public void testUnpackWithManifest() throws IOException {
+        doReturn(List.of("CRC32", "SHA-256")).when(this.settings).getDigestAlgorithms();
+
+        this.copyOut("deepzipfile", "zip");
+
+        final var result = this.unpacker.unpackWithManifest(this.path, this.temp);
+        final var manifest = result.getManifest();
+
+        assertThat(manifest.getDigests()).hasSize(9);
+        assertThat(manifest.getDigests().keySet())
+                .containsExactlyInAnyOrderElementsOf(result.getFiles());
+        assertThat(manifest.getDigests(this.temp.resolve("lbs/makefile")))
+                .containsEntry("CRC32", "148755d8")
+                .containsEntry(
+                        "SHA-256",
+                        "78becdf4d65a5cdf6cf3a3396717a4daa8da04b2c8cb8c1476c59b2565bf1e92"
+                );
+        assertThat(manifest.getDigests(this.temp.resolve("lbs/src/main.c")))
+                .containsEntry(
+                        "SHA-256",
+                        "8d0be60c30f4b02e1bd6175649fdfdbea139ef1c4c32f3d8b18a1eb3f3e7ce2c"
+                );
+    }
+
+    @Test
+    public void testUnpackWithoutDigestsHasEmptyManifest() throws IOException {
+        this.copyOut("tgzfile", "tar.gz");
+
+        final var result = this.unpacker.unpackWithManifest(this.path, this.temp);
+
+        assertThat(result.getFiles()).hasSize(1);
+        assertThat(result.getManifest().getDigests()).isEmpty();
+    }
+
+    @Test
+    public void testUnpackUnknownDigest() throws IOException {
+        doReturn(List.of("NOT-A-DIGEST")).when(this.settings).getDigestAlgorithms();
+
+        this.copyOut("deepzipfile", "zip");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+    }
+
+    @Test
+    public void testUnzipCrcMismatch() throws IOException {
+        this.copyOut("deepzipfile", "zip");
+
+        // Corrupt the first data byte of a stored entry
+        final var bytes = Files.readAllBytes(this.path);
+        final var name = "lbs/res/sprites/frog.png".getBytes(StandardCharsets.US_ASCII);
+        final var nameOffset = indexOf(bytes, name);
+        final var extraLength =
+                (bytes[nameOffset - 2] & 0xFF) | (bytes[nameOffset - 1] & 0xFF) << 8;
+        bytes[nameOffset + name.length + extraLength] ^= 0x55;
+        Files.write(this.path, bytes);
+
+        assertThrows(ZipException.class, () -> this.unpacker.unpack(this.path, this.temp));
+        assertThat(this.temp.resolve("lbs/res/sprites/frog.png")).doesNotExist();
+    }
+
+    @Test
+    public void testUntarGnuSparse() throws IOException {
+        this.assertSparseUnpacked("sparse");
+    }
+
+    @Test
+    public void testUntarPaxSparse() throws IOException {
+        this.assertSparseUnpacked("sparsepax");
+    }
+
+    @Test
+    public void testUntarSparseTooLarge() throws IOException {
+        // The stored data is tiny, but the logical size of the file is 8 MiB
+        doReturn(1024 * 1024L).when(this.settings).getMaxUnpackedArchiveSize();
+
+        this.copyOut("sparse", "tar");
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+    }
+
+    @Test
+    public void testUntarHardLink() throws IOException {
+        this.copyOut("links", "tar");
+
+        final var files = this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(files).containsExactlyInAnyOrderElementsOf(this.inTemp(
+                "bin/tool",
+                "bin/tool-alias"
+        ));
+        assertThat(Files.isSameFile(
+                this.temp.resolve("bin/tool"), this.temp.resolve("bin/tool-alias")
+        )).isTrue();
+    }
+
+    @Test
+    public void testUntarHardLinkDigestsWithDotPrefix() throws IOException {
+        doReturn(List.of("SHA-256")).when(this.settings).getDigestAlgorithms();
+        this.path = Files.createTempFile("unpacker-test-", "-dot-links.tar");
+        try (var out = new TarArchiveOutputStream(Files.newOutputStream(this.path))) {
+            final var contents = "contents\n".getBytes(StandardCharsets.US_ASCII);
+            final var file = new TarArchiveEntry("./dir/file.txt");
+            file.setSize(contents.length);
+            out.putArchiveEntry(file);
+            out.write(contents);
+            out.closeArchiveEntry();
+
+            final var link = new TarArchiveEntry("alias.txt", TarConstants.LF_LINK);
+            link.setLinkName("dir/file.txt");
+            out.putArchiveEntry(link);
+            out.closeArchiveEntry();
+        }
+
+        final var result = this.unpacker.unpackWithManifest(this.path, this.temp);
+        final var manifest = result.getManifest();
+
+        assertThat(manifest.getDigests().keySet())
+                .containsExactlyElementsOf(result.getFiles());
+        assertThat(manifest.getDigests(this.temp.resolve("alias.txt")))
+                .containsEntry(
+                        "SHA-256",
+                        "bfe5ed57e6e323555b379c660aa8d35b70c2f8f07cf03ad6747266495ac13be0"
+                )
+                .isEqualTo(manifest.getDigests(this.temp.resolve("./dir/file.txt")));
+    }
+
+    @Test
+    public void testUntarSymbolicLinkSkippedByDefault() throws IOException {
+        this.copyOut("links", "tar");
+
+        this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(this.temp.resolve("bin/tool-symlink")).doesNotExist();
+    }
+
+    @Test
+    public void testUntarSymbolicLinkAllowed() throws IOException {
+        doReturn(true).when(this.settings).isSymbolicLinksAllowed();
+
+        this.copyOut("links", "tar");
+
+        final var files = this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(files).contains(this.temp.resolve("bin/tool-symlink"));
+        assertThat(Files.isSymbolicLink(this.temp.resolve("bin/tool-symlink"))).isTrue();
+        assertThat(Files.readSymbolicLink(this.temp.resolve("bin/tool-symlink")))
+                .isEqualTo(Path.of("tool"));
+    }
+
+    @Test
+    public void testUntarHardLinkOutsideTargetDir() throws IOException {
+        this.copyOut("evilhardlink", "tar");
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+    }
+
+    @Test
+    public void testUntarAbsoluteSymbolicLink() throws IOException {
+        doReturn(true).when(this.settings).isSymbolicLinksAllowed();
+
+        this.copyOut("evilsymlink", "tar");
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+    }
+
+    @Test
+    public void testUntarSymbolicLinkEscapeThroughLink() throws IOException {
+        doReturn(true).when(this.settings).isSymbolicLinksAllowed();
+
+        // here -> . followed by here/escape -> ../outside, which looks harmless lexically
+        this.copyOut("symlinkescape", "tar");
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+        assertThat(this.temp.resolve("escape")).doesNotExist();
+    }
+
+    @Test
+    public void testUntarFileOverSymbolicLink() throws IOException {
+        doReturn(true).when(this.settings).isSymbolicLinksAllowed();
+
+        // escape -> a/b/../../escaped and a/b -> . each look harmless, but together escape
+        // points outside; the regular file named escape must not be written through it
+        this.copyOut("symlinkswap", "tar");
+        final var target = Files.createDirectory(this.temp.resolve("target"));
+
+        this.unpacker.unpack(this.path, target);
+
+        assertThat(this.temp.resolve("escaped")).doesNotExist();
+        assertThat(Files.isSymbolicLink(target.resolve("escape"))).isFalse();
+        assertThat(Files.readString(target.resolve("escape")))
+                .isEqualTo("written through a link\n");
+    }
+
+    @Test
+    public void testUntarHardLinkThroughRetargetedSymbolicLink() throws IOException {
+        doReturn(true).when(this.settings).isSymbolicLinksAllowed();
+
+        // d -> a/b/c/../../.. stays inside until a/b -> . makes it point to the parent
+        this.copyOut("hardlinkswap", "tar");
+        final var target = Files.createDirectory(this.temp.resolve("target"));
+        Files.writeString(this.temp.resolve("victim"), "outside");
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, target)
+        );
+        assertThat(target.resolve("stolen")).doesNotExist();
+    }
+
+    @Test
+    public void testUntarFileOverHardLink() throws IOException {
+        this.copyOut("hardlinkoverwrite", "tar");
+
+        this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(Files.readString(this.temp.resolve("original")))
+                .isEqualTo("original contents\n");
+        assertThat(Files.readString(this.temp.resolve("alias"))).isEqualTo("replaced\n");
+    }
+
+    @Test
+    public void testUntarMultiFrameZstd() throws IOException {
+        this.copyOut("multiframe", "tar.zst");
+
+        this.assertMultiFrameUnpacked();
+    }
+
+    @Test
+    public void testUntarMultiFrameLz4() throws IOException {
+        this.copyOut("multiframe", "tar.lz4");
+
+        this.assertMultiFrameUnpacked();
+    }
+
+    @Test
+    public void testDetectZstdByContents() throws IOException {
+        this.copyOut("multiframe", "tar.zst");
+        this.stripExtension();
+
+        this.assertMultiFrameUnpacked();
+        assertThat(this.unpacker.inspect(this.path).getFormat()).isEqualTo("tar.zst");
+    }
+
+    @Test
+    public void testDetectBz2ByContents() throws IOException {
+        this.copyOut("tb2file", "tar.bz2");
+        this.stripExtension();
+
+        final var files = this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(files).hasSize(9);
+        assertThat(this.unpacker.inspect(this.path).getFormat()).isEqualTo("tar.bz2");
+    }
+
+    @Test
+    public void testDetectWithHugeDictionary() throws IOException {
+        // An LZMA header declaring a 2 GiB dictionary, which detection must not allocate
+        this.path = Files.createTempFile("unpacker-test-", "-dictionary.bin");
+        Files.write(this.path, new byte[] {
+                0x5D, 0x00, 0x00, (byte) 0xFF, 0x7F, -1, -1, -1, -1, -1, -1, -1, -1, 0x00
+        });
+
+        final var files = this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(files).containsExactly(this.temp.resolve(this.path.getFileName()));
+    }
+
+    @Test
+    public void testDetectWithHugeZstdWindow() throws IOException {
+        final var tar = new ByteArrayOutputStream();
+        try (var out = new TarArchiveOutputStream(tar)) {
+            final var entry = new TarArchiveEntry("file.txt");
+            entry.setSize(1);
+            out.putArchiveEntry(entry);
+            out.write(42);
+            out.closeArchiveEntry();
+        }
+
+        // A zstd frame declaring a 128 MiB window, holding the tar in a single raw block
+        final var frame = new ByteArrayOutputStream();
+        frame.write(new byte[] { 0x28, (byte) 0xB5, 0x2F, (byte) 0xFD, 0x00, (byte) 0x88 });
+        final var blockHeader = tar.size() << 3 | 1;
+        frame.write(new byte[] {
+                (byte) blockHeader, (byte) (blockHeader >> 8), (byte) (blockHeader >> 16)
+        });
+        tar.writeTo(frame);
+
+        this.path = Files.createTempFile("unpacker-test-", "-window.tar.zst");
+        Files.write(this.path, frame.toByteArray());
+        assertThat(this.unpacker.unpack(this.path, this.temp))
+                .containsExactly(this.temp.resolve("file.txt"));
+
+        // Detection must not take on the window, so the file is not recognized
+        this.stripExtension();
+        assertThat(this.unpacker.unpack(this.path, this.temp))
+                .containsExactly(this.temp.resolve(this.path.getFileName()));
+    }
+
+    @Test
+    public void testInspectZip() throws IOException {
+        this.copyOut("deepzipfile", "zip");
+
+        final var summary = this.unpacker.inspect(this.path);
+
+        assertThat(summary.getFormat()).isEqualTo("zip");
+        assertThat(summary.getEntryCount()).isEqualTo(14);
+        assertThat(summary.getFileCount()).isEqualTo(9);
+        assertThat(summary.getDirectoryCount()).isEqualTo(5);
+        assertThat(summary.getTotalUncompressedSize()).isEqualTo(14771);
+        assertThat(summary.getArchiveSize()).isEqualTo(Files.size(this.path));
+        assertThat(summary.getFileTypes())
+                .containsEntry("png", 6L)
+                .containsEntry("c", 1L)
+                .containsEntry("h", 1L)
+                .containsEntry("", 1L)
+                .hasSize(4);
+    }
+
+    @Test
+    public void testInspectTarBz2() throws IOException {
+        this.copyOut("tb2file", "tar.bz2");
+
+        final var summary = this.unpacker.inspect(this.path);
+
+        assertThat(summary.getFormat()).isEqualTo("tar.bz2");
+        assertThat(summary.getFileCount()).isEqualTo(9);
+        assertThat(summary.getDirectoryCount()).isEqualTo(2);
+        assertThat(summary.getTotalUncompressedSize()).isEqualTo(97128);
+        assertThat(summary.getCompressionRatio()).isGreaterThan(1.0);
+        assertThat(summary.getFileTypes())
+                .containsEntry("c", 4L)
+                .containsEntry("h", 2L)
+                .containsEntry("txt", 2L)
+                .containsEntry("s3m", 1L)
+                .hasSize(4);
+    }
+
+    @Test
+    public void testInspectNotAnArchive() throws IOException {
+        this.copyOut("bloop", "xpf");
+
+        final var summary = this.unpacker.inspect(this.path);
+
+        assertThat(summary.getFormat()).isEqualTo("file");
+        assertThat(summary.getFileCount()).isEqualTo(1);
+        assertThat(summary.getTotalUncompressedSize()).isEqualTo(Files.size(this.path));
+        assertThat(summary.getCompressionRatio()).isEqualTo(1.0);
+        assertThat(summary.getFileTypes()).containsOnlyKeys("xpf");
+    }
+
+    private void assertMultiFrameUnpacked() throws IOException {
+        final var files = this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(files).containsExactlyInAnyOrderElementsOf(this.inTemp(
+                "docs/readme.txt",
+                "docs/notes.txt"
+        ));
+        // The second file spans the boundary between the two frames
+        assertThat(Files.size(this.temp.resolve("docs/readme.txt"))).isEqualTo(50000);
+        assertThat(Files.size(this.temp.resolve("docs/notes.txt"))).isEqualTo(90000);
+    }
+
+    @Test
+    public void testCancelledBeforeStart() throws IOException {
+        this.copyOut("tb2file", "tar.bz2");
+
+        final var token = CancellationToken.create();
+        token.cancel();
+
+        assertThrows(ExtractionCancelledException.class,
+                () -> this.unpacker.unpack(this.path, this.temp, token)
+        );
+        assertThat(this.regularFilesInTemp()).isEmpty();
+    }
+
+    @Test
+    public void testCancelledDuringExtraction() throws IOException {
+        this.copyOut("tb2file", "tar.bz2");
+
+        // The size limit is consulted for every file, so cancel when the second file comes up
+        final var token = CancellationToken.create();
+        final var calls = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (calls.incrementAndGet() == 2) {
+                token.cancel();
+            }
+            return 512 * 1024 * 1024L;
+        }).when(this.settings).getMaxUnpackedArchiveSize();
+
+        assertThrows(ExtractionCancelledException.class,
+                () -> this.unpacker.unpack(this.path, this.temp, token)
+        );
+        assertThat(calls).hasValue(2);
+        assertThat(this.regularFilesInTemp()).isEmpty();
+    }
+
+    @Test
+    public void testDeadlineExceeded() throws IOException {
+        this.copyOut("deepzipfile", "zip");
+
+        final var token = CancellationToken.withTimeout(Duration.ZERO);
+
+        assertThrows(ExtractionCancelledException.class,
+                () -> this.unpacker.unpackWithManifest(this.path, this.temp, token)
+        );
+        assertThat(this.regularFilesInTemp()).isEmpty();
+    }
+
+    @Test
+    public void testResumeTar() throws IOException {
+        doReturn(true).when(this.settings).isResumable();
+        this.copyOut("tb2file", "tar.bz2");
+
+        this.unpackUntilCancelled(4);
+        assertThat(this.temp.resolve(ExtractionJournal.FILE_NAME)).exists();
+        assertThat(this.regularFilesInTemp()).hasSize(4);
+
+        final var files = this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(files).hasSize(9);
+        assertThat(this.temp.resolve(ExtractionJournal.FILE_NAME)).doesNotExist();
+        assertThat(this.regularFilesInTemp()).hasSize(9);
+    }
+
+    @Test
+    public void testResumeTarFromOffset() throws IOException {
+        doReturn(true).when(this.settings).isResumable();
+        this.path = Files.createTempFile("unpacker-test-", "-resume.tar");
+        try (var out = new TarArchiveOutputStream(Files.newOutputStream(this.path))) {
+            for (var i = 0; i < 5; i++) {
+                final var contents = ("file " + i + '\n').repeat(100 * i + 1)
+                        .getBytes(StandardCharsets.US_ASCII);
+                final var entry = new TarArchiveEntry("dir/file-" + i + ".txt");
+                entry.setSize(contents.length);
+                out.putArchiveEntry(entry);
+                out.write(contents);
+                out.closeArchiveEntry();
+            }
+        }
+
+        this.unpackUntilCancelled(3);
+
+        final var result = this.unpacker.unpackWithManifest(this.path, this.temp);
+
+        assertThat(result.getFiles()).hasSize(5);
+        assertThat(this.temp.resolve(ExtractionJournal.FILE_NAME)).doesNotExist();
+        for (var i = 0; i < 5; i++) {
+            assertThat(Files.readString(this.temp.resolve("dir/file-" + i + ".txt")))
+                    .isEqualTo(("file " + i + '\n').repeat(100 * i + 1));
+        }
+    }
+
+    @Test
+    public void testResumeTarAfterUnrecordedEntries() throws IOException {
+        doReturn(true).when(this.settings).isResumable();
+        this.path = Files.createTempFile("unpacker-test-", "-resume.tar");
+        final var names = List.of(
+                "file-0.txt", "sub/", "new\nline.txt", "file-1.txt", "file-2.txt"
+        );
+        try (var out = new TarArchiveOutputStream(Files.newOutputStream(this.path))) {
+            for (final var name : names) {
+                final var entry = new TarArchiveEntry(name);
+                final var contents = entry.isDirectory()
+                        ? new byte[0]
+                        : (name + '\n').repeat(100).getBytes(StandardCharsets.UTF_8);
+                entry.setSize(contents.length);
+                out.putArchiveEntry(entry);
+                out.write(contents);
+                out.closeArchiveEntry();
+            }
+        }
+
+        this.unpackUntilCancelled(3);
+
+        // Entries before the last completed file are verified rather than skipped
+        Files.delete(this.temp.resolve("sub"));
+        Files.delete(this.temp.resolve("new\nline.txt"));
+
+        final var files = this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(files).hasSize(4);
+        assertThat(this.temp.resolve("sub")).isDirectory();
+        assertThat(this.temp.resolve("new\nline.txt")).hasContent("new\nline.txt\n".repeat(100));
+        assertThat(this.temp.resolve(ExtractionJournal.FILE_NAME)).doesNotExist();
+    }
+
+    @Test
+    public void testResumeZip() throws IOException {
+        doReturn(true).when(this.settings).isResumable();
+        this.copyOut("deepzipfile", "zip");
+
+        this.unpackUntilCancelled(5);
+        assertThat(this.regularFilesInTemp()).hasSize(5);
+
+        // A damaged file is written again
+        final var damaged = this.regularFilesInTemp().stream()
+                .filter(p -> !p.endsWith(ExtractionJournal.FILE_NAME))
+                .findFirst()
+                .orElseThrow();
+        Files.write(damaged, new byte[] { 42 });
+
+        final var files = this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(files).hasSize(9);
+        assertThat(Files.size(damaged)).isGreaterThan(1L);
+        assertThat(this.temp.resolve(ExtractionJournal.FILE_NAME)).doesNotExist();
+    }
+
+    @Test
+    public void testResumeMalicious() throws IOException {
+        doReturn(true).when(this.settings).isResumable();
+        this.copyOut("dotdot", "tar");
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+        assertThat(this.regularFilesInTemp()).isEmpty();
+    }
+
+    @Test
+    public void testDeduplicate() throws IOException {
+        doReturn(true).when(this.settings).isDeduplicating();
+
+        final var library = "library contents\n".repeat(1000).getBytes(StandardCharsets.US_ASCII);
+        this.path = Files.createTempFile("unpacker-test-", "-duplicates.zip");
+        try (var out = new ZipArchiveOutputStream(this.path.toFile())) {
+            for (final var name : List.of("a/lib.jar", "b/lib.jar", "c/lib.jar")) {
+                out.putArchiveEntry(new ZipArchiveEntry(name));
+                out.write(library);
+                out.closeArchiveEntry();
+            }
+            out.putArchiveEntry(new ZipArchiveEntry("c/other.jar"));
+            out.write(Arrays.copyOf(library, library.length - 1));
+            out.closeArchiveEntry();
+        }
+
+        final var files = this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(files).hasSize(4);
+        final var first = this.temp.resolve("a/lib.jar");
+        assertThat(Files.isSameFile(first, this.temp.resolve("b/lib.jar"))).isTrue();
+        assertThat(Files.isSameFile(first, this.temp.resolve("c/lib.jar"))).isTrue();
+        assertThat(Files.isSameFile(first, this.temp.resolve("c/other.jar"))).isFalse();
+        assertThat(Files.readAllBytes(this.temp.resolve("c/lib.jar"))).isEqualTo(library);
+    }
+
+    @Test
+    public void testDeduplicateCrcCollision() throws IOException {
+        doReturn(true).when(this.settings).isDeduplicating();
+        doReturn(List.of("CRC32", "SHA-256")).when(this.settings).getDigestAlgorithms();
+
+        // These words share their CRC-32, and so do equally long repetitions of them
+        final var names = List.of("a.txt", "b.txt", "c.txt");
+        final var words = List.of("plumless\n", "buckeroo\n", "plumless\n");
+        this.path = Files.createTempFile("unpacker-test-", "-collision.zip");
+        try (var out = new ZipArchiveOutputStream(this.path.toFile())) {
+            for (var i = 0; i < names.size(); i++) {
+                out.putArchiveEntry(new ZipArchiveEntry(names.get(i)));
+                out.write(words.get(i).repeat(100).getBytes(StandardCharsets.US_ASCII));
+                out.closeArchiveEntry();
+            }
+        }
+
+        final var result = this.unpacker.unpackWithManifest(this.path, this.temp);
+
+        doReturn(false).when(this.settings).isDeduplicating();
+        final var plain = this.temp.resolve("plain");
+        final var expected = this.unpacker.unpackWithManifest(this.path, plain);
+
+        for (final var name : names) {
+            assertThat(result.getManifest().getDigests(this.temp.resolve(name)))
+                    .isEqualTo(expected.getManifest().getDigests(plain.resolve(name)));
+        }
+        assertThat(this.temp.resolve("b.txt")).hasContent("buckeroo\n".repeat(100));
+        assertThat(Files.isSameFile(this.temp.resolve("a.txt"), this.temp.resolve("b.txt")))
+                .isFalse();
+        assertThat(Files.isSameFile(this.temp.resolve("a.txt"), this.temp.resolve("c.txt")))
+                .isTrue();
+    }
+
+    @Test
+    public void testDeduplicateOverwriteThroughDotPath() throws IOException {
+        doReturn(true).when(this.settings).isDeduplicating();
+
+        final var library = "library contents\n".repeat(1000).getBytes(StandardCharsets.US_ASCII);
+        final var other = "other contents\n".getBytes(StandardCharsets.US_ASCII);
+        this.path = Files.createTempFile("unpacker-test-", "-duplicates.zip");
+        try (var out = new ZipArchiveOutputStream(this.path.toFile())) {
+            for (final var name : List.of("a/lib.jar", "b/lib.jar", "a/./lib.jar", "c/lib.jar")) {
+                out.putArchiveEntry(new ZipArchiveEntry(name));
+                out.write(name.equals("a/./lib.jar") ? other : library);
+                out.closeArchiveEntry();
+            }
+        }
+
+        this.unpacker.unpack(this.path, this.temp);
+
+        // The overwritten file is no longer offered as a copy of the library
+        assertThat(Files.readAllBytes(this.temp.resolve("a/lib.jar"))).isEqualTo(other);
+        assertThat(Files.readAllBytes(this.temp.resolve("b/lib.jar"))).isEqualTo(library);
+        assertThat(Files.readAllBytes(this.temp.resolve("c/lib.jar"))).isEqualTo(library);
+    }
+
+    @Test
+    public void testUnsevenzip() throws IOException {
+        this.createSevenZ(3);
+
+        final var result = this.unpacker.unpackWithManifest(this.path, this.temp);
+
+        assertThat(result.getFiles()).containsExactly(
+                this.temp.resolve("dir/file-0.txt"),
+                this.temp.resolve("dir/file-1.txt"),
+                this.temp.resolve("dir/file-2.txt")
+        );
+        assertThat(Files.readString(this.temp.resolve("dir/file-2.txt")))
+                .isEqualTo("file 2\n".repeat(201));
+    }
+
+    @Test
+    public void testUnsevenzipInParallel() throws IOException {
+        doReturn(4).when(this.settings).getParallelism();
+        doReturn(List.of("SHA-256")).when(this.settings).getDigestAlgorithms();
+        this.createSevenZ(25);
+
+        final var result = this.unpacker.unpackWithManifest(this.path, this.temp);
+
+        // The results are in archive order, whichever thread unpacked them
+        final var files = new ArrayList<Path>();
+        for (var i = 0; i < 25; i++) {
+            files.add(this.temp.resolve("dir/file-" + i + ".txt"));
+        }
+        assertThat(result.getFiles()).containsExactlyElementsOf(files);
+        assertThat(result.getManifest().getDigests()).hasSize(25);
+        for (var i = 0; i < 25; i++) {
+            assertThat(Files.readString(this.temp.resolve("dir/file-" + i + ".txt")))
+                    .isEqualTo(("file " + i + '\n').repeat(100 * i + 1));
+        }
+    }
+
+    @Test
+    public void testUnsevenzipSolidBlocksInParallel() throws IOException {
+        doReturn(4).when(this.settings).getParallelism();
+        doReturn(List.of("SHA-256")).when(this.settings).getDigestAlgorithms();
+        // Two solid blocks with three and two files, stored without compression
+        this.copyOut("solidblocks", "7z");
+
+        final var result = this.unpacker.unpackWithManifest(this.path, this.temp);
+
+        assertThat(result.getFiles()).containsExactly(
+                this.temp.resolve("dir/a.txt"),
+                this.temp.resolve("dir/b.txt"),
+                this.temp.resolve("dir/c.txt"),
+                this.temp.resolve("dir/d.txt"),
+                this.temp.resolve("dir/e.txt")
+        );
+        assertThat(result.getManifest().getDigests()).hasSize(5);
+        assertThat(Files.readString(this.temp.resolve("dir/c.txt")))
+                .isEqualTo("charlie\n".repeat(30));
+        assertThat(Files.readString(this.temp.resolve("dir/d.txt")))
+                .isEqualTo("delta\n".repeat(40));
+    }
+
+    @Test
+    public void testUnsevenzipSingleSolidBlockInParallel() throws IOException {
+        doReturn(4).when(this.settings).getParallelism();
+        // A single solid block with three files, stored without compression
+        this.copyOut("solidblock", "7z");
+
+        final var result = this.unpacker.unpackWithManifest(this.path, this.temp);
+
+        assertThat(result.getFiles()).containsExactly(
+                this.temp.resolve("dir/a.txt"),
+                this.temp.resolve("dir/b.txt"),
+                this.temp.resolve("dir/c.txt")
+        );
+        assertThat(Files.readString(this.temp.resolve("dir/a.txt")))
+                .isEqualTo("alpha\n".repeat(10));
+        assertThat(Files.readString(this.temp.resolve("dir/c.txt")))
+                .isEqualTo("charlie\n".repeat(30));
+    }
+
+    @Test
+    public void testUnsevenzipTooLarge() throws IOException {
+        doReturn(1024L).when(this.settings).getMaxUnpackedArchiveSize();
+        this.createSevenZ(3);
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+        assertThat(this.regularFilesInTemp()).isEmpty();
+    }
+
+    @Test
+    public void testDotDotSevenZ() throws IOException {
+        this.path = Files.createTempFile("unpacker-test-", "-dotdot.7z");
+        try (var out = new SevenZOutputFile(this.path.toFile())) {
+            out.setContentCompression(SevenZMethod.COPY);
+            final var names = List.of("docs/readme.txt", "docs/../../unpacker-escape/escape.txt");
+            for (final var name : names) {
+                final var entry = new SevenZArchiveEntry();
+                entry.setName(name);
+                out.putArchiveEntry(entry);
+                out.write(name.getBytes(StandardCharsets.UTF_8));
+                out.closeArchiveEntry();
+            }
+        }
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+        assertThat(this.temp.resolveSibling("unpacker-escape")).doesNotExist();
+        assertThat(this.regularFilesInTemp()).isEmpty();
+    }
+
+    @Test
+    public void testDuplicateNamesSevenZ() throws IOException {
+        doReturn(2).when(this.settings).getParallelism();
+        this.path = Files.createTempFile("unpacker-test-", "-duplicates.7z");
+        try (var out = new SevenZOutputFile(this.path.toFile())) {
+            out.setContentCompression(SevenZMethod.COPY);
+            for (final var name : List.of("docs/readme.txt", "docs/./readme.txt")) {
+                final var entry = new SevenZArchiveEntry();
+                entry.setName(name);
+                out.putArchiveEntry(entry);
+                out.write(name.getBytes(StandardCharsets.UTF_8));
+                out.closeArchiveEntry();
+            }
+        }
+
+        assertThrows(MaliciousArchiveException.class,
+                () -> this.unpacker.unpack(this.path, this.temp)
+        );
+        assertThat(this.regularFilesInTemp()).isEmpty();
+    }
+
+    @Test
+    public void testUnzipMemoryMapped() throws IOException {
+        doReturn(true).when(this.settings).isMemoryMapped();
+
+        final var stored = "stored contents\n".repeat(5000).getBytes(StandardCharsets.US_ASCII);
+        final var deflated = "deflated contents\n".repeat(5000).getBytes(StandardCharsets.US_ASCII);
+        final var crc = new CRC32();
+        crc.update(stored);
+
+        this.path = Files.createTempFile("unpacker-test-", "-mapped.zip");
+        try (var out = new ZipArchiveOutputStream(this.path.toFile())) {
+            final var storedEntry = new ZipArchiveEntry("docs/stored.txt");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(stored.length);
+            storedEntry.setCrc(crc.getValue());
+            out.putArchiveEntry(storedEntry);
+            out.write(stored);
+            out.closeArchiveEntry();
+
+            out.putArchiveEntry(new ZipArchiveEntry("docs/deflated.txt"));
+            out.write(deflated);
+            out.closeArchiveEntry();
+        }
+
+        final var files = this.unpacker.unpack(this.path, this.temp);
+
+        assertThat(files).containsExactly(
+                this.temp.resolve("docs/stored.txt"),
+                this.temp.resolve("docs/deflated.txt")
+        );
+        assertThat(Files.readAllBytes(this.temp.resolve("docs/stored.txt"))).isEqualTo(stored);
+        assertThat(Files.readAllBytes(this.temp.resolve("docs/deflated.txt"))).isEqualTo(deflated);
+    }
+
+    @Test
+    public void testUntarMemoryMapped() throws IOException {
+        doReturn(List.of("SHA-256")).when(this.settings).getDigestAlgorithms();
+
+        this.path = Files.createTempFile("unpacker-test-", "-mapped.tar");
+        try (var out = new TarArchiveOutputStream(Files.newOutputStream(this.path))) {
+            for (var i = 0; i < 5; i++) {
+                final var contents = ("file " + i + '\n').repeat(1000 * i + 1)
+                        .getBytes(StandardCharsets.US_ASCII);
+                final var entry = new TarArchiveEntry("dir/file-" + i + ".txt");
+                entry.setSize(contents.length);
+                out.putArchiveEntry(entry);
+                out.write(contents);
+                out.closeArchiveEntry();
+            }
+        }
+        Files.createDirectory(this.temp.resolve("mapped"));
+        Files.createDirectory(this.temp.resolve("read"));
+
+        final var read = this.unpacker.unpackWithManifest(this.path, this.temp.resolve("read"));
+
+        doReturn(true).when(this.settings).isMemoryMapped();
+        final var mapped = this.unpacker.unpackWithManifest(this.path, this.temp.resolve("mapped"));
+
+        assertThat(mapped.getFiles()).hasSize(5);
+        for (var i = 0; i < 5; i++) {
+            final var mappedFile = this.temp.resolve("mapped/dir/file-" + i + ".txt");
+            final var readFile = this.temp.resolve("read/dir/file-" + i + ".txt");
+            assertThat(Files.readAllBytes(mappedFile)).isEqualTo(Files.readAllBytes(readFile));
+            assertThat(mapped.getManifest().getDigests(mappedFile))
+                    .isEqualTo(read.getManifest().getDigests(readFile));
+        }
+    }
+
+    @Test
+    public void testSyncBatched() throws IOException {
+        doReturn(SyncPolicy.BATCHED).when(this.settings).getSyncPolicy();
+        doReturn(List.of("SHA-256")).when(this.settings).getDigestAlgorithms();
+
+        this.copyOut("deepzipfile", "zip");
+
+        final var result = this.unpacker.unpackWithManifest(this.path, this.temp);
+
+        assertThat(result.getFiles()).hasSize(9);
+        assertThat(result.getManifest().getDigests()).hasSize(9);
+    }
+
+    @Test
+    public void testDirectIo() throws IOException {
+        // Every file is written with direct I/O where the file system supports it
+        doReturn(0L).when(this.settings).getDirectIoThreshold();
+        doReturn(List.of("SHA-256")).when(this.settings).getDigestAlgorithms();
+
+        this.copyOut("multiframe", "tar.zst");
+        Files.createDirectory(this.temp.resolve("direct"));
+        Files.createDirectory(this.temp.resolve("buffered"));
+
+        final var direct = this.unpacker.unpackWithManifest(this.path, this.temp.resolve("direct"));
+
+        doReturn(Long.MAX_VALUE).when(this.settings).getDirectIoThreshold();
+        final var buffered = this.unpacker.unpackWithManifest(this.path, this.temp.resolve("buffered"));
+
+        assertThat(Files.size(this.temp.resolve("direct/docs/notes.txt"))).isEqualTo(90000);
+        assertThat(direct.getManifest().getDigests(this.temp.resolve("direct/docs/notes.txt")))
+                .isEqualTo(buffered.getManifest().getDigests(
+                        this.temp.resolve("buffered/docs/notes.txt")
+                ));
+        assertThat(Files.readAllBytes(this.temp.resolve("direct/docs/readme.txt")))
+                .isEqualTo(Files.readAllBytes(this.temp.resolve("buffered/docs/readme.txt")));
+    }
+
+    /**
+     * Renames {@code this.path} so its extension no longer reveals the archive type.
+     *
+     * @throws IOException if renaming fails
+     */
+    private void stripExtension() throws IOException {
+        final var renamed = this.path.resolveSibling(this.path.getFileName() + ".dat");
+        Files.move(this.path, renamed);
+        this.path = renamed;
+    }
+
+    private void assertSparseUnpacked(final String resource) throws IOException {
+        doReturn(List.of("SHA-256")).when(this.settings).getDigestAlgorithms();
+
+        this.copyOut(resource, "tar");
+
+        final var result = this.unpacker.unpackWithManifest(this.path, this.temp);
+        final var file = this.temp.resolve("sparse.img");
+
+        assertThat(result.getFiles()).containsExactly(file);
+        assertThat(Files.size(file)).isEqualTo(8 * 1024 * 1024L);
+        assertThat(result.getManifest().getDigests(file)).containsEntry(
+                "SHA-256", "9ac9dfae31dd6fc7258fe59b547744520f21d58c089cb12184f6d0d8b3a3c240"
+        );
+
+        try (var channel = FileChannel.open(file)) {
+            final var buffer = ByteBuffer.allocate(19);
+            channel.read(buffer, 4 * 1024 * 1024L);
+            assertThat(new String(buffer.array(), StandardCharsets.US_ASCII))
+                    .isEqualTo("middle of the file\n");
+        }
+    }
+
+    /**
+     * Unpacks the archive, cancelling when the given file comes up, and restores the size limit.
+     */
+    private void unpackUntilCancelled(final int file) {
+        final var token = CancellationToken.create();
+        final var calls = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (calls.incrementAndGet() == file) {
+                token.cancel();
+            }
+            return 512 * 1024 * 1024L;
+        }).when(this.settings).getMaxUnpackedArchiveSize();
+
+        assertThrows(ExtractionCancelledException.class,
+                () -> this.unpacker.unpack(this.path, this.temp, token)
+        );
+
+        doReturn(512 * 1024 * 1024L).when(this.settings).getMaxUnpackedArchiveSize();
+    }
+
+    /**
+     * Creates a 7z archive with the given number of files, each compressed on its own.
+     */
+    private void createSevenZ(final int files) throws IOException {
+        this.path = Files.createTempFile("unpacker-test-", ".7z");
+        try (var out = new SevenZOutputFile(this.path.toFile())) {
+            out.setContentCompression(SevenZMethod.DEFLATE);
+            for (var i = 0; i < files; i++) {
+                final var contents = ("file " + i + '\n').repeat(100 * i + 1)
+                        .getBytes(StandardCharsets.US_ASCII);
+                final var entry = new SevenZArchiveEntry();
+                entry.setName("dir/file-" + i + ".txt");
+                entry.setSize(contents.length);
+                out.putArchiveEntry(entry);
+                out.write(contents);
+                out.closeArchiveEntry();
+            }
+        }
+    }
+
+    /**
+     * Creates a tar archive with a single file entry, keeping its name as is.
+     */
+    private void createTarWithFile(final String name) throws IOException {
+        this.path = Files.createTempFile("unpacker-test-", ".tar");
+        try (var out = new TarArchiveOutputStream(Files.newOutputStream(this.path))) {
+            final var entry = new TarArchiveEntry(name, true);
+            entry.setSize(1);
+            out.putArchiveEntry(entry);
+            out.write(42);
+            out.closeArchiveEntry();
+        }
+    }
+
+    private List<Path> regularFilesInTemp() throws IOException {
+        try (var walk = Files.walk(this.temp)) {
+            return walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    private static int indexOf(final byte[] haystack, final byte[] needle) {
+        outer:
+        for (var i = 0; i <= haystack.length - needle.length; i++) {
+            for (var j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("Needle not found");
+    }
+
     private Collection<Path> inTemp(final String... paths) {
         return Arrays.stream(paths)
                        .map(this.temp::resolve)
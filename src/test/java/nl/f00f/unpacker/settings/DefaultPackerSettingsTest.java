@@ -0,0 +1,25 @@
+package nl.f00f.unpacker.settings;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DefaultPackerSettingsTest {
+    private PackerSettings packerSettings;
+
+    @BeforeEach
+    public void before() {
+        this.packerSettings = new DefaultPackerSettings();
+    }
+
+    @Test
+    public void testSensibleParallelism() {
+        assertThat(this.packerSettings.getParallelism()).isGreaterThan(0);
+    }
+
+    @Test
+    public void testSensibleGzipBlockSize() {
+        assertThat(this.packerSettings.getGzipBlockSize()).isGreaterThan(0);
+    }
+}
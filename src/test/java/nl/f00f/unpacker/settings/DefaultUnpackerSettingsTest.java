@@ -17,4 +17,35 @@ public class DefaultUnpackerSettingsTest {
     public void testSensibleMaxUnpackedArchiveSize() {
         assertThat(this.unpackerSettings.getMaxUnpackedArchiveSize()).isGreaterThan(0);
     }
+
+    @Test
+    public void testSymbolicLinksNotAllowed() {
+        assertThat(this.unpackerSettings.isSymbolicLinksAllowed()).isFalse();
+    }
+
+    @Test
+    public void testNotResumable() {
+        assertThat(this.unpackerSettings.isResumable()).isFalse();
+    }
+
+    @Test
+    public void testNotDeduplicating() {
+        assertThat(this.unpackerSettings.isDeduplicating()).isFalse();
+    }
+
+    @Test
+    public void testSingleThreaded() {
+        assertThat(this.unpackerSettings.getParallelism()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNotMemoryMapped() {
+        assertThat(this.unpackerSettings.isMemoryMapped()).isFalse();
+    }
+
+    @Test
+    public void testPlainWrites() {
+        assertThat(this.unpackerSettings.getSyncPolicy()).isEqualTo(SyncPolicy.NONE);
+        assertThat(this.unpackerSettings.getDirectIoThreshold()).isEqualTo(Long.MAX_VALUE);
+    }
 }
@@ -0,0 +1,54 @@
+package nl.f00f.unpacker.settings;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PackerSettingsBuilderTest {
+    private PackerSettingsBuilder packerSettingsBuilder;
+
+    @BeforeEach
+    public void before() {
+        this.packerSettingsBuilder = new PackerSettingsBuilder();
+    }
+
+    @Test
+    public void testDefault() {
+        final var defaults = new DefaultPackerSettings();
+        final var settings = this.packerSettingsBuilder.build();
+
+        assertThat(settings.getParallelism()).isEqualTo(defaults.getParallelism());
+        assertThat(settings.getGzipBlockSize()).isEqualTo(defaults.getGzipBlockSize());
+    }
+
+    @Test
+    public void testModified() {
+        final var settings = this.packerSettingsBuilder
+                .withParallelism(3)
+                .withGzipBlockSize(4096)
+                .build();
+
+        assertThat(settings.getParallelism()).isEqualTo(3);
+        assertThat(settings.getGzipBlockSize()).isEqualTo(4096);
+    }
+
+    @Test
+    public void testDoubleBuildSameValues() {
+        this.packerSettingsBuilder
+                .withParallelism(5)
+                .build();
+
+        final var otherSettings = this.packerSettingsBuilder.build();
+
+        assertThat(otherSettings.getParallelism()).isEqualTo(5);
+    }
+
+    @Test
+    public void testDoubleBuildDistinctInstance() {
+        final var firstSettings = this.packerSettingsBuilder.build();
+        final var secondSettings = this.packerSettingsBuilder.build();
+
+        assertThat(firstSettings).isNotSameAs(secondSettings);
+    }
+}
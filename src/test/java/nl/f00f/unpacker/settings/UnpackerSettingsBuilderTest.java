@@ -3,7 +3,10 @@ package nl.f00f.unpacker.settings;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class UnpackerSettingsBuilderTest {
     private UnpackerSettingsBuilder unpackerSettingsBuilder;
@@ -20,6 +23,104 @@ public class UnpackerSettingsBuilderTest {
 
         assertThat(settings.getMaxUnpackedArchiveSize())
                 .isEqualTo(defaults.getMaxUnpackedArchiveSize());
+        assertThat(settings.getDigestAlgorithms()).isEqualTo(defaults.getDigestAlgorithms());
+        assertThat(settings.isSymbolicLinksAllowed()).isEqualTo(defaults.isSymbolicLinksAllowed());
+        assertThat(settings.getSyncPolicy()).isEqualTo(defaults.getSyncPolicy());
+        assertThat(settings.getDirectIoThreshold()).isEqualTo(defaults.getDirectIoThreshold());
+        assertThat(settings.isResumable()).isEqualTo(defaults.isResumable());
+        assertThat(settings.isDeduplicating()).isEqualTo(defaults.isDeduplicating());
+        assertThat(settings.getParallelism()).isEqualTo(defaults.getParallelism());
+        assertThat(settings.isMemoryMapped()).isEqualTo(defaults.isMemoryMapped());
+    }
+
+    @Test
+    public void testFromMinimalImplementation() {
+        final var defaults = new DefaultUnpackerSettings();
+        final UnpackerSettings minimal = () -> 1024L;
+
+        final var settings = this.unpackerSettingsBuilder.fromUnpackerSettings(minimal).build();
+
+        assertThat(settings.getMaxUnpackedArchiveSize()).isEqualTo(1024L);
+        assertThat(settings.getDigestAlgorithms()).isEqualTo(defaults.getDigestAlgorithms());
+        assertThat(settings.isSymbolicLinksAllowed()).isEqualTo(defaults.isSymbolicLinksAllowed());
+        assertThat(settings.getSyncPolicy()).isEqualTo(defaults.getSyncPolicy());
+        assertThat(settings.getDirectIoThreshold()).isEqualTo(defaults.getDirectIoThreshold());
+        assertThat(settings.isResumable()).isEqualTo(defaults.isResumable());
+        assertThat(settings.isDeduplicating()).isEqualTo(defaults.isDeduplicating());
+        assertThat(settings.getParallelism()).isEqualTo(defaults.getParallelism());
+        assertThat(settings.isMemoryMapped()).isEqualTo(defaults.isMemoryMapped());
+    }
+
+    @Test
+    public void testNullSyncPolicy() {
+        assertThrows(NullPointerException.class,
+                () -> this.unpackerSettingsBuilder.withSyncPolicy(null)
+        );
+    }
+
+    @Test
+    public void testModifiedResumable() {
+        final var settings = this.unpackerSettingsBuilder
+                .withResumable(true)
+                .build();
+
+        assertThat(settings.isResumable()).isTrue();
+    }
+
+    @Test
+    public void testModifiedDeduplicating() {
+        final var settings = this.unpackerSettingsBuilder
+                .withDeduplicating(true)
+                .build();
+
+        assertThat(settings.isDeduplicating()).isTrue();
+    }
+
+    @Test
+    public void testModifiedParallelism() {
+        final var settings = this.unpackerSettingsBuilder
+                .withParallelism(4)
+                .build();
+
+        assertThat(settings.getParallelism()).isEqualTo(4);
+    }
+
+    @Test
+    public void testModifiedMemoryMapped() {
+        final var settings = this.unpackerSettingsBuilder
+                .withMemoryMapped(true)
+                .build();
+
+        assertThat(settings.isMemoryMapped()).isTrue();
+    }
+
+    @Test
+    public void testModifiedDigestAlgorithms() {
+        final var settings = this.unpackerSettingsBuilder
+                .withDigestAlgorithms(List.of("SHA-256", "CRC32C"))
+                .build();
+
+        assertThat(settings.getDigestAlgorithms()).containsExactly("SHA-256", "CRC32C");
+    }
+
+    @Test
+    public void testModifiedSymbolicLinksAllowed() {
+        final var settings = this.unpackerSettingsBuilder
+                .withSymbolicLinksAllowed(true)
+                .build();
+
+        assertThat(settings.isSymbolicLinksAllowed()).isTrue();
+    }
+
+    @Test
+    public void testModifiedWriteStrategy() {
+        final var settings = this.unpackerSettingsBuilder
+                .withSyncPolicy(SyncPolicy.BATCHED)
+                .withDirectIoThreshold(64 * 1024 * 1024L)
+                .build();
+
+        assertThat(settings.getSyncPolicy()).isEqualTo(SyncPolicy.BATCHED);
+        assertThat(settings.getDirectIoThreshold()).isEqualTo(64 * 1024 * 1024L);
     }
 
     @Test